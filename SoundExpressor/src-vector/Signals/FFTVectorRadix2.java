@@ -0,0 +1,119 @@
+package Signals;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * A radix-2 decimation-in-time FFT whose butterflies use the Vector API.
+ * 
+ * In every level where a half-block is at least one vector wide, the p's, q's and twiddles
+ * of neighboring butterflies are all contiguous in memory, so a whole vector of butterflies
+ * is done at once. To make the complex multiply cheap on interleaved data, the twiddles of
+ * each level are precomputed as a vector of real parts (wr, wr, ...) and a vector of signed
+ * imaginary parts (-wi, wi, ...), so that W*q = q*wr + swap(q)*wi, where swap exchanges the
+ * re and im of each bin. The first few (narrow) levels are done with plain scalar code.
+ * 
+ * Requires JDK 16+ with "--add-modules jdk.incubator.vector". Only ever loaded through VectorSupport.
+ * 
+ * @author Steve Levine
+ *
+ */
+public class FFTVectorRadix2 implements FFTAlgorithm {
+	
+	public static final String NAME = "VECTOR_RADIX2";
+	
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	private static final int LANES = SPECIES.length();
+	private static final VectorShuffle<Double> SWAP = VectorShuffle.fromOp(SPECIES, i -> i ^ 1);
+	
+	private int N;		// The size of the FFT, i.e., 1024
+	private int v;		// log2(N)
+	
+	private double[][] twiddlesRe;		// For each level L, W_(2^L)^j for each j < 2^(L-1), as (wr, wr) pairs
+	private double[][] twiddlesIm;		// For each level L, W_(2^L)^j for each j < 2^(L-1), as (-wi, wi) pairs
+	
+	public FFTVectorRadix2(int fft_size) {
+		N = fft_size;
+		v = (int) Math.round(Math.log(N)/Math.log(2));
+		
+		twiddlesRe = new double[v + 1][];
+		twiddlesIm = new double[v + 1][];
+		for(int L = 1; L <= v; L++) {
+			int h = 1 << (L - 1);
+			twiddlesRe[L] = new double[2*h];
+			twiddlesIm[L] = new double[2*h];
+			for(int j = 0; j < h; j++) {
+				double theta = - 2*Math.PI / (2*h) * j;
+				twiddlesRe[L][2*j] = Math.cos(theta);
+				twiddlesRe[L][2*j + 1] = Math.cos(theta);
+				twiddlesIm[L][2*j] = -Math.sin(theta);
+				twiddlesIm[L][2*j + 1] = Math.sin(theta);
+			}
+		}
+	}
+	
+	public String getName() {
+		return NAME;
+	}
+	
+	public int getFFTSize() {
+		return N;
+	}
+	
+	public void computeButterflies(double[] X) {
+		
+		for(int L = 1; L <= v; L++) {
+			int h = 1 << (L - 1);	// Half the block size, in complex values
+			double[] Wr = twiddlesRe[L];
+			double[] Wi = twiddlesIm[L];
+			
+			if (2*h >= LANES) {
+				// Vectorized: LANES/2 butterflies at a time
+				for(int block = 0; block < 2*N; block += 4*h) {
+					for(int j = 0; j < 2*h; j += LANES) {
+						int p = block + j;
+						int q = p + 2*h;
+						
+						DoubleVector qv = DoubleVector.fromArray(SPECIES, X, q);
+						DoubleVector wr = DoubleVector.fromArray(SPECIES, Wr, j);
+						DoubleVector wi = DoubleVector.fromArray(SPECIES, Wi, j);
+						DoubleVector delta = qv.mul(wr).add(qv.rearrange(SWAP).mul(wi));
+						
+						DoubleVector pv = DoubleVector.fromArray(SPECIES, X, p);
+						pv.add(delta).intoArray(X, p);
+						pv.sub(delta).intoArray(X, q);
+					}
+				}
+				
+			} else {
+				// Too narrow to vectorize, so do it the old fashioned way.
+				for(int block = 0; block < 2*N; block += 4*h) {
+					for(int j = 0; j < 2*h; j += 2) {
+						int p = block + j;
+						int q = p + 2*h;
+						
+						double wr = Wr[j];
+						double wi = Wi[j + 1];
+						double qr = X[q];
+						double qi = X[q + 1];
+						
+						double deltaR = wr * qr - wi * qi;
+						double deltaI = wr * qi + wi * qr;
+						
+						double pr = X[p];
+						double pi = X[p + 1];
+						
+						X[q] = pr - deltaR;
+						X[q + 1] = pi - deltaI;
+						
+						X[p] = pr + deltaR;
+						X[p + 1] = pi + deltaI;
+					}
+				}
+			}
+		}
+		
+	}
+	
+}
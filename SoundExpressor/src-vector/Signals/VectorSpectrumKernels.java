@@ -0,0 +1,74 @@
+package Signals;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SpectrumKernels that use the Vector API, so that several bins are handled per instruction.
+ * 
+ * Each step loads two vectors' worth of interleaved (re, im) values, squares them, and then
+ * de-interleaves the squares (evens are re^2, odds are im^2) so that one vector of |X[k]|^2's
+ * can be formed with a single add. Any leftover bins at the end are done with plain loops.
+ * 
+ * Requires JDK 16+ with "--add-modules jdk.incubator.vector". Only ever loaded through VectorSupport.
+ * 
+ * @author Steve Levine
+ *
+ */
+public class VectorSpectrumKernels implements SpectrumKernels {
+	
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	private static final int LANES = SPECIES.length();
+	private static final VectorShuffle<Double> EVENS = VectorShuffle.fromOp(SPECIES, i -> 2*i);
+	private static final VectorShuffle<Double> ODDS = VectorShuffle.fromOp(SPECIES, i -> 2*i + 1);
+	
+	
+	// Compute |X[k]|^2 for LANES bins starting at bin k
+	private static DoubleVector powerVector(double[] X, int k) {
+		DoubleVector a = DoubleVector.fromArray(SPECIES, X, 2*k);
+		DoubleVector b = DoubleVector.fromArray(SPECIES, X, 2*k + LANES);
+		a = a.mul(a);
+		b = b.mul(b);
+		return a.rearrange(EVENS, b).add(a.rearrange(ODDS, b));
+	}
+	
+	public void powers(double[] X, int numBins, double[] out) {
+		int k = 0;
+		for(; k + LANES <= numBins; k += LANES) {
+			powerVector(X, k).intoArray(out, k);
+		}
+		for(; k < numBins; k++) {
+			double re = X[2*k];
+			double im = X[2*k + 1];
+			out[k] = re*re + im*im;
+		}
+	}
+	
+	public void magnitudes(double[] X, int numBins, double[] out) {
+		int k = 0;
+		for(; k + LANES <= numBins; k += LANES) {
+			powerVector(X, k).lanewise(VectorOperators.SQRT).intoArray(out, k);
+		}
+		for(; k < numBins; k++) {
+			double re = X[2*k];
+			double im = X[2*k + 1];
+			out[k] = Math.sqrt(re*re + im*im);
+		}
+	}
+	
+	public void logMagnitudes(double[] X, int numBins, double[] out) {
+		int k = 0;
+		for(; k + LANES <= numBins; k += LANES) {
+			// log10(sqrt(p)) = 0.5 * log10(p), which saves the square root
+			powerVector(X, k).lanewise(VectorOperators.LOG10).mul(0.5).intoArray(out, k);
+		}
+		for(; k < numBins; k++) {
+			double re = X[2*k];
+			double im = X[2*k + 1];
+			out[k] = Math.log10(Math.sqrt(re*re + im*im));
+		}
+	}
+	
+}
@@ -2,6 +2,7 @@ package Common;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Represents a list of Features computed from a particular frame of audio.
@@ -49,4 +50,11 @@ public class FeatureList {
 		return featureMap.containsKey(key);
 	}
 	
+	/**
+	 * Returns the names of all of the features in this FeatureList
+	 */
+	public Set<String> getFeatureNames() {
+		return featureMap.keySet();
+	}
+	
 }
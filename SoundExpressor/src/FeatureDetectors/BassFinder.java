@@ -1,7 +1,10 @@
 package FeatureDetectors;
 
+import java.util.List;
+
 import Common.FeatureList;
 import LightDJGUI.FrequencyRangeControl;
+import Signals.FFT;
 import Utils.TimerTicToc;
 
 /**
@@ -48,23 +51,36 @@ public class BassFinder extends FeatureDetector {
 		maxFreq = 120;
 		normalizingVal = 30.0;
 		averageHalfLife = 0.5;
-		decayRate = 1.0 / (UPDATES_PER_SECOND / 4.0);
-		phi = Math.pow(0.5, 1/(averageHalfLife * UPDATES_PER_SECOND));
+		timingChanged();
 		recentBassIndex = 0;
 		recentBassLevels = new double[NUM_RECENT_BASS_VALS];
 		
-		alpha = 1 - Math.exp(Math.log(percentLowPass) / (UPDATES_PER_SECOND * timeLowPass));
-		
 		// Request some controls
 		FrequencyRangeControl freqRangeControl = new FrequencyRangeControl(minFreq, maxFreq);
 		requestUserControl(freqRangeControl);
 		
 	}
 	
+	@Override
+	protected void timingChanged() {
+		decayRate = 1.0 / (UPDATES_PER_SECOND / 4.0);
+		phi = Math.pow(0.5, 1/(averageHalfLife * UPDATES_PER_SECOND));
+		alpha = 1 - Math.exp(Math.log(percentLowPass) / (UPDATES_PER_SECOND * timeLowPass));
+	}
+	
 	@Override
 	public void computeFeatures(double[] frequencies, double[] magnitudes, FeatureList featureList) {
+		computeFeaturesFromPowers(frequencies, getPowers(magnitudes), featureList);
+	}
+	
+	@Override
+	public void computeFeatures(FFT fft, FeatureList featureList) {
+		computeFeaturesFromPowers(fft.getFrequencies(), fft.getPowers(), featureList);
+	}
+	
+	private void computeFeaturesFromPowers(double[] frequencies, double[] powers, FeatureList featureList) {
 		// Compute the level of bass
-		double bassLevel = getFreqs(frequencies, magnitudes);
+		double bassLevel = getFreqsFromPowers(frequencies, powers);
 		bassLevelSmoothed = alpha * bassLevel + (1 - alpha) * bassLevelSmoothed;
 		
 		// Create a feature of this, and add it to the featureList.
@@ -79,9 +95,13 @@ public class BassFinder extends FeatureDetector {
 	 * @return The nice bass level, smoothed out etc.
 	 */
 	public double getFreqs(double[] frequencies, double[] magnitudes) {
-
-		
-		double outputVal;
+		return getFreqsFromPowers(frequencies, getPowers(magnitudes));
+	}
+	
+	/**
+	 * The same, from the power spectrum (the squared magnitudes).
+	 */
+	public double getFreqsFromPowers(double[] frequencies, double[] powers) {
 		
 		// Compute an average from everything from minBassFreq to maxBassFreq
 		double largetFreq = frequencies[frequencies.length - 1];
@@ -91,12 +111,19 @@ public class BassFinder extends FeatureDetector {
 		double sum = 0;
 		int n = 0;
 		for(int i = minIndex; i <= maxIndex; i++) {
-			sum += magnitudes[i]*magnitudes[i];
+			sum += powers[i];
 			n++;
 		}
 		
-		//double level = Math.sqrt(sum);
-		double level = sum / n;
+		return updateLevel(sum / n);
+		
+	}
+	
+	// Step the adaptive state machine with the latest average bass power.
+	protected double updateLevel(double level) {
+		
+		double outputVal;
+		
 		currentBassLevel = level;
 		recentBassLevels[recentBassIndex] = level;
 		recentBassIndex = (recentBassIndex + 1) % NUM_RECENT_BASS_VALS;
@@ -173,4 +200,15 @@ public class BassFinder extends FeatureDetector {
 	}
 
 	
+	@Override
+	public List<double[]> getFrequencyBands() {
+		return singleBand(minFreq, maxFreq);
+	}
+	
+	@Override
+	public int getPreferredFFTSize() {
+		// The bass notes are only a few Hz apart, so the finer the better
+		return 4096;
+	}
+	
 }
@@ -1,5 +1,7 @@
 package FeatureDetectors;
 
+import java.util.List;
+
 import Common.FeatureList;
 
 
@@ -42,11 +44,16 @@ public class ClapFinder extends FeatureDetector  {
 		maxFreq = 16000;
 		normalizingVal = 0.1;
 		averageHalfLife = 0.25;
+		timingChanged();
+	}
+	
+	@Override
+	protected void timingChanged() {
 		phi = Math.pow(0.5, 1/(averageHalfLife * UPDATES_PER_SECOND));
 		
 		alpha = 1 - Math.exp(Math.log(percentLowPass) / (UPDATES_PER_SECOND * timeLowPass));
 		
-		// This will store a low pass on every frequency.
+		// This will store a low pass on every frequency. (The bins are different at a new FFT size, so start over.)
 		averagedFrequencyLevels = new double[FFT_SIZE];
 		for(int i = 0; i < FFT_SIZE; i++) {
 			averagedFrequencyLevels[i] = 0;
@@ -119,4 +126,15 @@ public class ClapFinder extends FeatureDetector  {
 	}
 
 	
+	@Override
+	public List<double[]> getFrequencyBands() {
+		return singleBand(minFreq, maxFreq);
+	}
+	
+	@Override
+	public int getPreferredFFTSize() {
+		// Claps are short and sharp, and don't need much frequency resolution
+		return 256;
+	}
+	
 }
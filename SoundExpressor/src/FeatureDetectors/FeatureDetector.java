@@ -5,6 +5,7 @@ import java.util.List;
 
 import Common.UserControl;
 import Common.FeatureList;
+import Signals.FFT;
 
 /**
  * All FeatureDetectors must implement this interface!
@@ -14,6 +15,9 @@ public abstract class FeatureDetector {
 	
 	private List<UserControl> controls;
 	
+	// Reused by getPowers(), so that squaring the magnitudes doesn't allocate anything each frame
+	private double[] powersBuffer = new double[0];
+	
 	protected int FFT_SIZE;
 	protected double UPDATES_PER_SECOND;
 	
@@ -29,6 +33,62 @@ public abstract class FeatureDetector {
 	 */
 	public abstract void computeFeatures(double[] frequencies, double[] magnitudes, FeatureList featureList);
 	
+	/**
+	 * Compute the features from the FFT itself. By default, this just passes the magnitudes
+	 * along to the method above. FeatureDetectors that would rather work with some other
+	 * view of the spectrum (for example, the power spectrum from fft.getPowers(), which
+	 * saves squaring the magnitudes again) should override this.
+	 */
+	public void computeFeatures(FFT fft, FeatureList featureList) {
+		computeFeatures(fft.getFrequencies(), fft.getMagnitudes(), featureList);
+	}
+	
+	/**
+	 * Returns the frequency bands (each one {minFreq, maxFreq}, in Hz) that this FeatureDetector
+	 * actually reads from the spectrum, or null (the default) if it may look at any of it. An
+	 * empty list means that it doesn't look at the spectrum at all. When all of the detectors in
+	 * use only need a few narrow bands, the VisualizationEngine can compute just those bins
+	 * instead of a whole FFT (see Signals.BandAnalyzer). Called after init(), and again whenever
+	 * the engine is reconfigured.
+	 */
+	public List<double[]> getFrequencyBands() {
+		return null;
+	}
+	
+	/**
+	 * Returns the FFT size that this FeatureDetector would like its spectrum computed at, or 0
+	 * (the default) for the VisualizationEngine's usual size. Short FFT's react faster to sudden
+	 * sounds, while long ones resolve low frequencies better. The spectrum is still updated once
+	 * per hop either way, so UPDATES_PER_SECOND doesn't change.
+	 */
+	public int getPreferredFFTSize() {
+		return 0;
+	}
+	
+	/**
+	 * A list of just one frequency band, for FeatureDetectors that only look at one (see
+	 * getFrequencyBands).
+	 */
+	protected static List<double[]> singleBand(double minFreq, double maxFreq) {
+		List<double[]> bands = new LinkedList<double[]>();
+		bands.add(new double[]{minFreq, maxFreq});
+		return bands;
+	}
+	
+	/**
+	 * Square the given magnitudes into the power spectrum, for FeatureDetectors that work from
+	 * powers but are handed magnitudes. The array returned is reused by the next call.
+	 */
+	protected double[] getPowers(double[] magnitudes) {
+		if (powersBuffer.length < magnitudes.length) {
+			powersBuffer = new double[magnitudes.length];
+		}
+		for(int i = 0; i < magnitudes.length; i++) {
+			powersBuffer[i] = magnitudes[i] * magnitudes[i];
+		}
+		return powersBuffer;
+	}
+	
 	
 	
 	public FeatureDetector() {}
@@ -38,6 +98,22 @@ public abstract class FeatureDetector {
 		FFT_SIZE = fftSize;
 		UPDATES_PER_SECOND = updatesPerSecond;
 	}
+	
+	/**
+	 * Change the FFT size and the number of updates per second, when the VisualizationEngine
+	 * is reconfigured on the fly. Called between hops, never during computeFeatures().
+	 */
+	public void setTiming(int fftSize, double updatesPerSecond) {
+		FFT_SIZE = fftSize;
+		UPDATES_PER_SECOND = updatesPerSecond;
+		timingChanged();
+	}
+	
+	/**
+	 * Called after FFT_SIZE or UPDATES_PER_SECOND have changed. FeatureDetectors that work
+	 * anything out from them (i.e., decay rates) should do it here, and call this from init().
+	 */
+	protected void timingChanged() {}
 
 	/**
 	 * FeatureDetectors may request user controls for user input using this function.
@@ -1,5 +1,7 @@
 package FeatureDetectors;
 
+import java.util.List;
+
 import Common.FeatureList;
 
 /**
@@ -28,6 +30,11 @@ public class FrequencyRangeFinder extends FeatureDetector {
 	@Override
 	public void init() {
 
+		timingChanged();
+	}
+	
+	@Override
+	protected void timingChanged() {
 		phi = Math.pow(0.5, 1/(averageHalfLife * UPDATES_PER_SECOND));
 	}
 	
@@ -78,4 +85,9 @@ public class FrequencyRangeFinder extends FeatureDetector {
 	}
 	
 	
+	@Override
+	public List<double[]> getFrequencyBands() {
+		return singleBand(minFreq, maxFreq);
+	}
+	
 }
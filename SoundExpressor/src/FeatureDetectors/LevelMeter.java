@@ -1,6 +1,7 @@
 package FeatureDetectors;
 
 import Common.FeatureList;
+import Signals.FFT;
 
 /**
  * Measures the overall level of the music, like a VU meter. Gently lowpasses the output.
@@ -33,16 +34,29 @@ public class LevelMeter extends FeatureDetector {
 		averageHalfLife = 0.0025;
 		decayRate = 1.0 / (20);
 		
-		alpha = 1 - Math.exp(Math.log(percentLowPass) / (UPDATES_PER_SECOND * timeLowPass));
-		
 		// Calculate some parameters
+		timingChanged();
+	}
+	
+	@Override
+	protected void timingChanged() {
+		alpha = 1 - Math.exp(Math.log(percentLowPass) / (UPDATES_PER_SECOND * timeLowPass));
 		phi = Math.pow(0.5, 1/(averageHalfLife * UPDATES_PER_SECOND));
 	}
 	
 	@Override
 	public void computeFeatures(double[] frequencies, double[] magnitudes, FeatureList featureList) {
-		// Compute the level of bass
-		double level = getLevel(frequencies, magnitudes);
+		computeFeaturesFromPowers(frequencies, getPowers(magnitudes), featureList);
+	}
+	
+	@Override
+	public void computeFeatures(FFT fft, FeatureList featureList) {
+		computeFeaturesFromPowers(fft.getFrequencies(), fft.getPowers(), featureList);
+	}
+	
+	private void computeFeaturesFromPowers(double[] frequencies, double[] powers, FeatureList featureList) {
+		// Compute the overall level
+		double level = getLevelFromPowers(frequencies, powers);
 		
 		levelSmoothed = alpha * level + (1 - alpha) * levelSmoothed;
 		
@@ -53,16 +67,26 @@ public class LevelMeter extends FeatureDetector {
 
 	
 	public double getLevel(double[] frequencies, double[] magnitudes) {
+		return getLevelFromPowers(frequencies, getPowers(magnitudes));
+	}
+	
+	/**
+	 * The overall level, from the power spectrum (the squared magnitudes).
+	 */
+	public double getLevelFromPowers(double[] frequencies, double[] powers) {
 		double sum = 0;
 		int n = 0;
 		for(int i = 1; i < frequencies.length; i++) {
-			//sum += Math.log(1 + magnitudes[i]);
-			
-			sum += magnitudes[i]*magnitudes[i];
+			sum += powers[i];
 			n++;
 		}
 		
-		double level = sum / n;
+		return updateLevel(sum / n);
+		
+	}
+	
+	// Step the averaging with the latest average power.
+	protected double updateLevel(double level) {
 		normalizingVal = 60.0;
 		phi = 0.8;
 		averagedLevel = averagedLevel * phi + level*(1 - phi);
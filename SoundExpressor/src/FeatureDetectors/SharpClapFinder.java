@@ -1,6 +1,9 @@
 package FeatureDetectors;
 
+import java.util.List;
+
 import Common.FeatureList;
+import Signals.FFT;
 
 /**
  * A state-machine like object that, when stepped with FFT values, attempts to output the current bass level.
@@ -35,9 +38,13 @@ public class SharpClapFinder extends FeatureDetector  {
 	}
 	
 	public double getFreqs(double[] frequencies, double[] magnitudes) {
-
-		
-		double outputVal;
+		return getFreqsFromPowers(frequencies, getPowers(magnitudes));
+	}
+	
+	/**
+	 * Measure the sharp sounds from the power spectrum (the squared magnitudes).
+	 */
+	public double getFreqsFromPowers(double[] frequencies, double[] powers) {
 		
 		// Compute an average from everything from minBassFreq to maxBassFreq
 		double largetFreq = frequencies[frequencies.length - 1];
@@ -47,10 +54,18 @@ public class SharpClapFinder extends FeatureDetector  {
 		double sum = 0;
 		int n = 0;
 		for(int i = minIndex; i <= maxIndex; i++) {
-			sum += magnitudes[i]*magnitudes[i];
+			sum += powers[i];
 			n++;
 		}
-		double level = sum / n;
+		return updateLevel(sum / n);
+		
+	}
+	
+	// Step the adaptive state machine with the latest average power.
+	protected double updateLevel(double level) {
+		
+		double outputVal;
+		
 		currentSharpLevel = level;		
 		recentBassLevels[recentBassIndex] = level;
 		recentBassIndex = (recentBassIndex + 1) % NUM_RECENT_BASS_VALS;
@@ -146,8 +161,17 @@ public class SharpClapFinder extends FeatureDetector  {
 
 	@Override
 	public void computeFeatures(double[] frequencies, double[] magnitudes, FeatureList featureList) {
-		// Compute the level of bass
-		double sharpLevel = getFreqs(frequencies, magnitudes);
+		computeFeaturesFromPowers(frequencies, getPowers(magnitudes), featureList);
+	}
+	
+	@Override
+	public void computeFeatures(FFT fft, FeatureList featureList) {
+		computeFeaturesFromPowers(fft.getFrequencies(), fft.getPowers(), featureList);
+	}
+	
+	private void computeFeaturesFromPowers(double[] frequencies, double[] powers, FeatureList featureList) {
+		// Compute the level of sharp sounds
+		double sharpLevel = getFreqsFromPowers(frequencies, powers);
 		
 		// Create a feature of this, and add it to the featureList.
 		featureList.addFeature("SHARP_LEVEL", sharpLevel);
@@ -161,14 +185,30 @@ public class SharpClapFinder extends FeatureDetector  {
 		maxFreq = 10000;
 		normalizingVal = 30.0;
 		averageHalfLife = 1.0;
-		decayRate = 1.0 / (UPDATES_PER_SECOND / 10.0);
 		
 		// Calculate some parameters
-		phi = Math.pow(0.5, 1/(averageHalfLife * UPDATES_PER_SECOND));
+		timingChanged();
 		
 		recentBassIndex = 0;
 		recentBassLevels = new double[NUM_RECENT_BASS_VALS];
 		
 	}
 	
+	@Override
+	protected void timingChanged() {
+		decayRate = 1.0 / (UPDATES_PER_SECOND / 10.0);
+		phi = Math.pow(0.5, 1/(averageHalfLife * UPDATES_PER_SECOND));
+	}
+	
+	@Override
+	public List<double[]> getFrequencyBands() {
+		return singleBand(minFreq, maxFreq);
+	}
+	
+	@Override
+	public int getPreferredFFTSize() {
+		// Claps are short and sharp, and don't need much frequency resolution
+		return 256;
+	}
+	
 }
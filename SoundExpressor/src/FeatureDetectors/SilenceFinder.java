@@ -1,5 +1,8 @@
 package FeatureDetectors;
 
+import java.util.LinkedList;
+import java.util.List;
+
 import Common.FeatureList;
 
 /**
@@ -18,8 +21,16 @@ public class SilenceFinder extends FeatureDetector {
 	@Override
 	public void init() {
 		EPSILON = 5.0;
-		WAIT_PERIOD = (long) (0.5 * UPDATES_PER_SECOND);
 		numSilents = 0;
+		
+		// Calculate some parameters
+		timingChanged();
+	}
+	
+	@Override
+	protected void timingChanged() {
+		// Half a second's worth of updates
+		WAIT_PERIOD = (long) (0.5 * UPDATES_PER_SECOND);
 	}
 	
 	@Override
@@ -52,4 +63,10 @@ public class SilenceFinder extends FeatureDetector {
 
 
 	
+	@Override
+	public List<double[]> getFrequencyBands() {
+		// Only looks at the other features
+		return new LinkedList<double[]>();
+	}
+	
 }
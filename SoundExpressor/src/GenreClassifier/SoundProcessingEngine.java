@@ -21,7 +21,10 @@ import SignalGUI.RealtimePlotter;
 import SignalGUI.ScrollingChannel;
 import Signals.FFT;
 import Signals.FFTEngine;
+import Signals.FFTRegistry;
+import Signals.SampleRing;
 import SoundEngine.RhythmMeter;
+import SoundEngine.PCMDecoder;
 import Utils.TimerTicToc;
 
 /**
@@ -30,20 +33,21 @@ import Utils.TimerTicToc;
  */
 public class SoundProcessingEngine {
 
-	private double[][] buffers;
-	private int[] bufferCursors;
+	private SampleRing sampleRing;
+	private double[] frameBuffer;
+	private int hopCursor = 0;
 	private final int BUFFER_SIZE = 2048;
 	private final int BUFFER_OVERLAP = 8;	// Must be a power of 2
 	
 	// The audio format of data being written in
 	private final int FRAME_SIZE;
-	private final int BYTES_PER_SAMPLE;
-	private final long MAX_SAMPLE_VAL;
 	private final int SAMPLE_RATE;
 	
 	
 	// For multi-channel audio (ex., stereo), only use this channel for processing
-	private final int CHANNEL_TO_PROCESS = 0;
+	private final PCMDecoder.ChannelMode CHANNEL_TO_PROCESS = PCMDecoder.ChannelMode.LEFT;
+	private PCMDecoder decoder;
+	private double[][] decoded = new double[1][0];
 	
 	// Visualization stuff
 	GUIVisualizer gui;
@@ -66,43 +70,32 @@ public class SoundProcessingEngine {
 	// Used for profiling and debugging
 	TimerTicToc timer;
 	
-	// The FFT engine
+	// The FFT engine, and a reusable output buffer (and wrapper) for it
 	FFTEngine fftEngine;
+	double[] fftBuffer;
+	FFT fft;
 	
 	
 	public SoundProcessingEngine(AudioFormat format) {
 		
-		// Remember stuff about the audio format
-		// For simplicity for now, only support 16 bit samples
-		if (format.getSampleSizeInBits() != 16) {
-			System.out.println("Error: I currently only support 16 bit linear PCM audio data!");
-			throw new RuntimeException("I only support 16 bit linear PCM audio data!");	
-		} else if (format.isBigEndian()){
-			System.out.println("Error: I don't feel like supporting big endian!");
-			throw new RuntimeException("I don't feel like supporting big endian!");	
-		} else {
-			// Okay
-			BYTES_PER_SAMPLE = 2;
-			FRAME_SIZE = format.getFrameSize();
-			MAX_SAMPLE_VAL = (long) Math.pow(2, 8*BYTES_PER_SAMPLE - 1);
-			SAMPLE_RATE = (int) format.getSampleRate();
-			
-		}
+		// Remember stuff about the audio format. The decoder checks that it's one we can handle.
+		decoder = new PCMDecoder(format, CHANNEL_TO_PROCESS);
+		FRAME_SIZE = format.getFrameSize();
+		SAMPLE_RATE = (int) format.getSampleRate();
 		
-		// Set up sample buffers
-		buffers = new double[BUFFER_OVERLAP][BUFFER_SIZE];
-		bufferCursors = new int[BUFFER_OVERLAP];
-		for(int i = 0; i < BUFFER_OVERLAP; i++) {
-			bufferCursors[i] = i*(BUFFER_SIZE/BUFFER_OVERLAP);
-		}
+		// Set up the sample ring, and a scratch buffer for frames read out of it
+		sampleRing = new SampleRing(BUFFER_SIZE);
+		frameBuffer = new double[BUFFER_SIZE];
 		
 		
 		
 		// Set up a profiler, for debugging use
 		timer = new TimerTicToc();
 		
-		// Start the FFT engine
-		fftEngine = new FFTEngine(BUFFER_SIZE, SAMPLE_RATE);
+		// Get the (shared) FFT engine
+		fftEngine = FFTRegistry.getEngine(BUFFER_SIZE, SAMPLE_RATE);
+		fftBuffer = new double[BUFFER_SIZE + 2];
+		fft = new FFT(fftBuffer, BUFFER_SIZE / 2 + 1, SAMPLE_RATE, BUFFER_SIZE);
 		
 		// Load up the visualizations
 		initVisualizations();
@@ -147,35 +140,27 @@ public class SoundProcessingEngine {
 	 */
 	public void write(byte[] data, int offset, int length) {
 		// Data is in the form of frames, which could be multi-channel audio.
-		// Read in by samples
-		long lValue;
-		double dValue;
-		
-		for(int dataCursor = offset; dataCursor < length + offset; dataCursor += FRAME_SIZE) {
-			// Read in one sample
-			lValue = 0;
-			if (BYTES_PER_SAMPLE == 2) {
-				lValue = ((((short) data[dataCursor + 1]) + 128) << 8) | (((short) data[dataCursor]) + 128);
-			}
-			
-			// Convert this to a double value, and store it!
-			dValue = (double) (lValue - MAX_SAMPLE_VAL) / (MAX_SAMPLE_VAL);
-			
-			// Put in in the buffers!
-			for(int i = 0; i < BUFFER_OVERLAP; i++) {
+		// Decode the whole block at once.
+		if (decoded[0].length < length / FRAME_SIZE) {
+			decoded[0] = new double[length / FRAME_SIZE];
+		}
+		int numFrames = decoder.decode(data, offset, length, decoded);
+		
+		// Put it in the ring a hop at a time, visualizing at the end of each hop
+		int hopSize = BUFFER_SIZE / BUFFER_OVERLAP;
+		int n = 0;
+		while(n < numFrames) {
+			int chunk = Math.min(numFrames - n, hopSize - hopCursor);
+			sampleRing.addBlock(decoded[0], n, chunk);
+			n += chunk;
+			hopCursor += chunk;
 			
-				buffers[i][bufferCursors[i]++] = dValue;
-				
-				// Is it time to visualize?
-				if (bufferCursors[i] == BUFFER_SIZE) {
-					visualize(buffers[i]);
-					
-					// Reset the ring buffer
-					bufferCursors[i] = 0;
-				}
-				
+			// Is it time to visualize?
+			if (hopCursor == hopSize) {
+				sampleRing.readFrame(frameBuffer, BUFFER_SIZE);
+				visualize(frameBuffer);
+				hopCursor = 0;
 			}
-
 		}
 	}
 	
@@ -185,7 +170,7 @@ public class SoundProcessingEngine {
 		// Compute an FFT
 		
 		//timer.tic();
-		FFT fft = fftEngine.computeFFT(buffer);  //new FFT(buffer, SAMPLE_RATE);
+		fftEngine.computeRealFFT(buffer, fft);  //new FFT(buffer, SAMPLE_RATE);
 		//timer.toc();
 		//System.out.println(timer.getAverageTime());
 		
@@ -200,12 +185,13 @@ public class SoundProcessingEngine {
 		// Obtain the frequencies and corresponding magnitudes of the FFT
 		double[] frequencies = fft.getFrequencies();
 		double[] magnitudes = fft.getMagnitudes();
+		double[] powers = fft.getPowers();
 		
 		// Compute useful values from the FFT data
-		double bassLevel = bassFinder.getFreqs(frequencies, magnitudes);
+		double bassLevel = bassFinder.getFreqsFromPowers(frequencies, powers);
 		double midsLevel = midsFinder.getFreqs(frequencies, magnitudes);
 		double highsLevel = highsFinder.getFreqs(frequencies, magnitudes);
-		double level = levelMeter.getLevel(frequencies, magnitudes);
+		double level = levelMeter.getLevelFromPowers(frequencies, powers);
 		boolean rhythmBeat = rhythmMeter.update(bassLevel);
 		//double vocalsLevel = vocalsFinder.getFreqs(frequencies, magnitudes);
 		//double clapLevel = clapFinder.getFreqs(frequencies, magnitudes);
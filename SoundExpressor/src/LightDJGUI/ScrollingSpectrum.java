@@ -61,6 +61,18 @@ public class ScrollingSpectrum {
 	private void setSize(int w, int h) {
 		
 		buffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		computeInterpolation(h);
+	}
+	
+	/**
+	 * Change the size of the FFT's that will be passed in from now on.
+	 */
+	public void setFFTSize(int fftSize) {
+		this.fftSize = fftSize;
+		computeInterpolation(height);
+	}
+	
+	private void computeInterpolation(int h) {
 		
 		// Precompute the indices and blending for interpolations, so that this won't have to happen later.
 		interpolationIndices = new int[h];
@@ -81,7 +93,10 @@ public class ScrollingSpectrum {
 		}	
 	}
 	
-	public void updateWithNewSpectrum(double[] frequencies, double magnitudes[]) {
+	/**
+	 * Draw the next column of the spectrum, given the power spectrum (squared magnitudes).
+	 */
+	public void updateWithNewPowerSpectrum(double[] frequencies, double powers[]) {
 		Graphics2D g2D = (Graphics2D) buffer.getGraphics();
 		
 		// Draw this spectrum, linearly interpolating between frequencies
@@ -96,7 +111,7 @@ public class ScrollingSpectrum {
 			int index = interpolationIndices[yPixelIndex];
 			
 			//double magnitude = (1 - alpha) * magnitudes[index] + alpha * magnitudes[index + 1];
-			double magnitude = Math.log10((1 - alpha) * magnitudes[index]* magnitudes[index] + alpha * magnitudes[index + 1]* magnitudes[index + 1]);
+			double magnitude = Math.log10((1 - alpha) * powers[index] + alpha * powers[index + 1]);
 			
 			g2D.setColor(getColor(magnitude / max_val));
 			g2D.drawRect(currentX, height - yPixelIndex - 1, 1, 1);
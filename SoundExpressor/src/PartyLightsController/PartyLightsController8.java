@@ -28,6 +28,10 @@ public class PartyLightsController8 {
 	private boolean isConnected;
 	private OutputStream outStream;
 	
+	// How long the last visualize() spent writing to the serial port (the rest was spent encoding), in nanoseconds
+	private long writeTime = 0;
+	private volatile long lastWriteTime = 0;
+	
 	// Protocol information
 	protected static final int MAX_COLOR_CHANNEL_VALUE = 255;
 	protected static final int BYTES_PER_COLOR_CHANNEL = 1;
@@ -147,15 +151,26 @@ public class PartyLightsController8 {
 	 */
 	protected void write(byte[] data) throws IOException {
 		if (isConnected) {
+			long start = System.nanoTime();
 			outStream.write(data);
 			outStream.flush();
+			writeTime += System.nanoTime() - start;
 		}
 	}
+	
+	/**
+	 * How long (in nanoseconds) the last call to visualize() spent actually writing to the
+	 * serial port, rather than working out what to write.
+	 */
+	public long getLastWriteTime() {
+		return lastWriteTime;
+	}
 
 	/**
 	 * Write color output data!
 	 */
 	public void visualize(ColorOutput colorOutput) {
+		writeTime = 0;
 		
 		// Determine the optimal compression
 		colorOutput.determineCompression();
@@ -234,6 +249,7 @@ public class PartyLightsController8 {
 			break;
 		
 		}		
+		lastWriteTime = writeTime;
 	}
 	
 	// Gamma correct to approximate the sRGB colorspace
@@ -42,6 +42,22 @@ public abstract class PostProcessor {
 		controls = new ArrayList<UserControl>();
 	}
 	
+	/**
+	 * Change the number of updates per second, when the VisualizationEngine is reconfigured
+	 * on the fly. Called on the thread rendering the frames (the same one that calls
+	 * postProcess()), just before the next frame is post processed.
+	 */
+	public void setTiming(double updatesPerSecond) {
+		UPDATES_PER_SECOND = updatesPerSecond;
+		timingChanged();
+	}
+	
+	/**
+	 * Called after UPDATES_PER_SECOND has changed. PostProcessors that work anything out from
+	 * it should do it here. Does nothing by default.
+	 */
+	protected void timingChanged() {}
+	
 	/**
 	 * FeatureDetectors may request user controls for user input using this function.
 	 * Please note that this function only works when called inside init().
@@ -0,0 +1,221 @@
+package Signals;
+
+import java.util.List;
+
+/**
+ * Computes just a handful of FFT bins directly with the Goertzel algorithm, as the samples
+ * stream in, instead of taking a whole FFT every hop. Meant for engines that only ever look
+ * at one or two narrow bands - for example, the bass (0 - 120Hz) is only 6 bins of a 2048 point
+ * FFT at 44.1kHz. Each bin costs one multiply and two adds per sample per overlapping frame,
+ * so up to MAX_BINS bins this is cheaper than windowing and taking the whole FFT (the bass
+ * alone comes out around 40% cheaper), and no frames of samples need to be kept around at
+ * all - just two numbers per bin per frame. That makes it a good fit for small controller boards.
+ *
+ * The frames, overlap, and window are exactly the same as the regular FFT path in the
+ * VisualizationEngine, and the computed bins are written into a regular half-spectrum FFT,
+ * so FeatureDetectors can't tell the difference (as long as they only read the bins they
+ * asked for - all of the other bins are left at zero).
+ *
+ * Not thread safe - each analysis thread needs its own BandAnalyzer.
+ *
+ * @author Steve Levine
+ *
+ */
+public class BandAnalyzer {
+
+	// Above about this many bins, a whole FFT is cheaper
+	public static final int MAX_BINS = 8;
+
+	private final int N;			// The frame (FFT) size
+	private final int hopSize;		// How far apart the overlapping frames start
+	private final double fs;		// The sample rate
+
+	private int[] requestedBins;	// Which FFT bins were asked for
+	private int[] bins;				// The same, padded out to a multiple of 4 by repeating the last one
+	private double[] coefficients;	// 2*cos(2 PI k / N) for each bin
+	private double[] cosines;		// cos(2 PI k / N) for each bin
+	private double[] sines;			// sin(2 PI k / N) for each bin
+	private double[] window;		// The window coefficients
+
+	// The Goertzel filter state for each overlapping frame and bin, s[n - 1] and s[n - 2].
+	// Frame i's values for bin j are at index i*bins.length + j.
+	private double[] s1;
+	private double[] s2;
+	private int[] frameCursors;		// How many samples each overlapping frame has seen so far
+
+
+	/**
+	 * Create a BandAnalyzer that computes the given bins of an fft_size point FFT, for overlapping
+	 * frames that start every fft_size / overlap samples, using the given window.
+	 */
+	public BandAnalyzer(int fft_size, int overlap, double fs, Window window, int[] bins) {
+
+		// Basic error checking
+		if (fft_size % overlap != 0) {
+			throw new RuntimeException("Error: The FFT size must be a multiple of the overlap!");
+		} else if (window.getSize() != fft_size) {
+			throw new RuntimeException("Error: The window is the wrong size for this FFT!");
+		}
+
+		N = fft_size;
+		hopSize = fft_size / overlap;
+		this.fs = fs;
+		requestedBins = bins.clone();
+
+		// The filters are run four at a time, so pad the list of bins out to a multiple of 4.
+		// Computing the same bin twice is harmless.
+		this.bins = new int[(bins.length + 3) / 4 * 4];
+		for(int j = 0; j < this.bins.length; j++) {
+			this.bins[j] = bins[Math.min(j, bins.length - 1)];
+		}
+		bins = this.bins;
+
+		coefficients = new double[bins.length];
+		cosines = new double[bins.length];
+		sines = new double[bins.length];
+		for(int j = 0; j < bins.length; j++) {
+			if (bins[j] < 0 || bins[j] > N/2) {
+				throw new RuntimeException("Error: Bin " + bins[j] + " is out of range for the given sized FFT!");
+			}
+			double omega = 2*Math.PI * bins[j] / N;
+			cosines[j] = Math.cos(omega);
+			sines[j] = Math.sin(omega);
+			coefficients[j] = 2*cosines[j];
+		}
+
+		this.window = new double[N];
+		for(int n = 0; n < N; n++) {
+			this.window[n] = window.getCoefficient(n);
+		}
+
+		// Stagger the frames just like the VisualizationEngine's buffers
+		s1 = new double[overlap * bins.length];
+		s2 = new double[overlap * bins.length];
+		frameCursors = new int[overlap];
+		for(int i = 0; i < overlap; i++) {
+			frameCursors[i] = i * hopSize;
+		}
+
+	}
+
+
+	/**
+	 * Works out which bins of a half-spectrum FFT the given frequency bands (each one
+	 * {minFreq, maxFreq}) cover, looking them up the same way the FeatureDetectors do.
+	 * Bins are only listed once, even if bands overlap.
+	 */
+	public static int[] getBinsForBands(int fftSize, double fs, List<double[]> bands) {
+		int numBins = fftSize / 2 + 1;
+		double[] frequencies = FFT.getFrequencyTable(fftSize, fs, numBins);
+		double largestFreq = frequencies[numBins - 1];
+
+		boolean[] needed = new boolean[numBins];
+		int count = 0;
+		for(double[] band : bands) {
+			int minIndex = Math.max(0, (int) (band[0] / largestFreq * numBins));
+			int maxIndex = Math.min(numBins - 1, (int) (band[1] / largestFreq * numBins));
+			for(int i = minIndex; i <= maxIndex; i++) {
+				if (!needed[i]) {
+					needed[i] = true;
+					count++;
+				}
+			}
+		}
+
+		int[] bins = new int[count];
+		int j = 0;
+		for(int i = 0; i < numBins; i++) {
+			if (needed[i]) {
+				bins[j++] = i;
+			}
+		}
+		return bins;
+	}
+
+
+	public int getFFTSize() {
+		return N;
+	}
+
+	public double getSampleRate() {
+		return fs;
+	}
+
+	public int getHopSize() {
+		return hopSize;
+	}
+
+	public int[] getBins() {
+		return requestedBins.clone();
+	}
+
+
+	/**
+	 * Feed in the next hop of fft_size / overlap samples, oldest first. This always completes
+	 * exactly one of the overlapping frames, whose bins are written into fft (which must be a
+	 * half-spectrum FFT of the right size). Doesn't allocate any memory.
+	 */
+	public void addHop(double[] hop, FFT fft) {
+
+		// Basic error checking
+		if (hop.length < hopSize) {
+			throw new RuntimeException("Error: Hop is too short for this band analyzer!");
+		}
+
+		int numBins = bins.length;
+		for(int i = 0; i < frameCursors.length; i++) {
+			int start = frameCursors[i];
+			int base = i * numBins;
+
+			// Run the hop (windowed for this frame) through each bin's Goertzel filter. Keep the
+			// filter states in local variables, and do four bins at a time - each filter is one
+			// long chain of dependent multiply-adds, so running several side by side keeps the CPU busy.
+			for(int j = 0; j < numBins; j += 4) {
+				int b = base + j;
+				double c0 = coefficients[j], c1 = coefficients[j + 1], c2 = coefficients[j + 2], c3 = coefficients[j + 3];
+				double p0 = s1[b], p1 = s1[b + 1], p2 = s1[b + 2], p3 = s1[b + 3];
+				double q0 = s2[b], q1 = s2[b + 1], q2 = s2[b + 2], q3 = s2[b + 3];
+				for(int n = 0; n < hopSize; n++) {
+					double xw = hop[n] * window[start + n];
+					double t0 = xw + c0 * p0 - q0;
+					double t1 = xw + c1 * p1 - q1;
+					double t2 = xw + c2 * p2 - q2;
+					double t3 = xw + c3 * p3 - q3;
+					q0 = p0; q1 = p1; q2 = p2; q3 = p3;
+					p0 = t0; p1 = t1; p2 = t2; p3 = t3;
+				}
+				s1[b] = p0; s1[b + 1] = p1; s1[b + 2] = p2; s1[b + 3] = p3;
+				s2[b] = q0; s2[b + 1] = q1; s2[b + 2] = q2; s2[b + 3] = q3;
+			}
+
+			// Is this frame done?
+			frameCursors[i] += hopSize;
+			if (frameCursors[i] == N) {
+				writeBins(base, fft);
+				frameCursors[i] = 0;
+			}
+		}
+
+	}
+
+
+	// Turn the final Goertzel filter states of a frame into FFT values, and reset the frame.
+	// After N samples, X[k] = exp(j*2 PI k / N) * s[N - 1] - s[N - 2].
+	private void writeBins(int base, FFT fft) {
+		if (fft.getFFTSize() != N || fft.getNumBins() != N/2 + 1) {
+			throw new RuntimeException("Error: FFT has the wrong size for this band analyzer!");
+		}
+
+		double[] X = fft.getInterleavedValues();
+		for(int j = 0; j < bins.length; j++) {
+			double a = s1[base + j];
+			double b = s2[base + j];
+			X[2*bins[j]] = cosines[j] * a - b;
+			X[2*bins[j] + 1] = sines[j] * a;
+			s1[base + j] = 0;
+			s2[base + j] = 0;
+		}
+		fft.invalidate();
+	}
+
+}
@@ -0,0 +1,113 @@
+package Signals;
+
+/**
+ * A higher order IIR filter, built as a chain of second order sections ("biquads").
+ * Each section computes
+ *
+ * y[n] = b0*x[n] + b1*x[n - 1] + b2*x[n - 2] - a1*y[n - 1] - a2*y[n - 2]
+ *
+ * and feeds its output into the next one. Splitting a filter up like this keeps it stable and
+ * accurate even at high orders and low cutoff frequencies, where one big LinearFilter would
+ * start running into rounding problems.
+ *
+ * Like LinearFilter, this is a streaming filter: it remembers its state between calls, and
+ * filterSample and filterBlock don't allocate any memory. Each section runs in transposed
+ * direct form II, so the whole state is just two numbers per section.
+ *
+ * Not thread safe - each stream needs its own filter.
+ *
+ * @author Steve Levine
+ *
+ */
+public class BiquadCascade {
+
+	private final int numSections;
+	private double[] coeffs;	// b0, b1, b2, a1, a2 for each section, one after another
+	private double[] state;		// z1, z2 for each section, one after another
+
+
+	/**
+	 * Create a cascade from the given sections, each one {b0, b1, b2, a1, a2} (with a0 = 1).
+	 */
+	public BiquadCascade(double[][] sections) {
+		numSections = sections.length;
+		coeffs = new double[5 * numSections];
+		state = new double[2 * numSections];
+		for(int i = 0; i < numSections; i++) {
+			if (sections[i].length != 5) {
+				throw new RuntimeException("Error: Each biquad section needs exactly 5 coefficients!");
+			}
+			for(int j = 0; j < 5; j++) {
+				coeffs[5*i + j] = sections[i][j];
+			}
+		}
+	}
+
+	public int getNumSections() {
+		return numSections;
+	}
+
+
+	/**
+	 * Forget all past inputs and outputs.
+	 */
+	public void reset() {
+		for(int i = 0; i < state.length; i++) {
+			state[i] = 0;
+		}
+	}
+
+
+	/**
+	 * Filter the next sample of the stream, and return the next output sample.
+	 */
+	public double filterSample(double x) {
+		for(int i = 0; i < numSections; i++) {
+			int c = 5*i;
+			int s = 2*i;
+			double y = coeffs[c] * x + state[s];
+			state[s] = coeffs[c + 1] * x - coeffs[c + 3] * y + state[s + 1];
+			state[s + 1] = coeffs[c + 2] * x - coeffs[c + 4] * y;
+			x = y;
+		}
+		return x;
+	}
+
+
+	/**
+	 * Filter the next length samples of the stream, x[offset] ... x[offset + length - 1],
+	 * in place. Runs the whole block through one section at a time, which keeps each section's
+	 * coefficients and state in registers.
+	 */
+	public void filterBlock(double[] x, int offset, int length) {
+		for(int i = 0; i < numSections; i++) {
+			int c = 5*i;
+			double b0 = coeffs[c], b1 = coeffs[c + 1], b2 = coeffs[c + 2];
+			double a1 = coeffs[c + 3], a2 = coeffs[c + 4];
+			double z1 = state[2*i];
+			double z2 = state[2*i + 1];
+
+			for(int n = offset; n < offset + length; n++) {
+				double in = x[n];
+				double y = b0 * in + z1;
+				z1 = b1 * in - a1 * y + z2;
+				z2 = b2 * in - a2 * y;
+				x[n] = y;
+			}
+
+			state[2*i] = z1;
+			state[2*i + 1] = z2;
+		}
+	}
+
+
+	/**
+	 * Create a filter that removes any DC offset from a signal, while leaving everything much
+	 * above the given cutoff frequency alone: y[n] = x[n] - x[n - 1] + R*y[n - 1].
+	 */
+	public static BiquadCascade createDCBlocker(double fs, double cutoff) {
+		double R = Math.exp(-2*Math.PI * cutoff / fs);
+		return new BiquadCascade(new double[][] {{1, -1, 0, -R, 0}});
+	}
+
+}
@@ -1,55 +1,172 @@
 package Signals;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * This class contains a computed Fast Fourier Transforms (FFT's)
+ * 
+ * The FFT may either hold all N bins, or (for real-valued signals) only the
+ * N/2 + 1 non-redundant bins from DC up to and including the Nyquist frequency.
+ * 
+ * The power spectrum, magnitudes, and log magnitudes are each computed lazily, the
+ * first time somebody asks for them, and then remembered until the FFT values change
+ * (see invalidate()). So, no matter how many FeatureDetectors ask for the magnitudes,
+ * they are only computed once per frame. The frequency of each bin never changes, and
+ * is shared by all FFT's of the same size and sample rate. All of these arrays are
+ * shared, and must NOT be modified by whoever asks for them!
+ * 
  * @author Steve Levine
  *
  */
 public class FFT {
 
-	private double[][] X;
+	private double[] X;		// Complex values, interleaved: bin k is X[2k] + j*X[2k + 1]
+	private int numBins;	// The number of complex bins stored in X
 	private double fs;
+	private int N;			// The size of the FFT that was computed (may be larger than the number of bins stored)
+	private SpectrumKernels kernels;	// Computes magnitudes, etc. (with SIMD if possible)
+	
+	// Lazily computed views of the spectrum
+	private double[] frequencies;
+	private double[] powers;
+	private double[] magnitudes;
+	private double[] logMagnitudes;
+	private boolean powersValid = false;
+	private boolean magnitudesValid = false;
+	private boolean logMagnitudesValid = false;
+	
+	// Frequency tables shared between all FFT's with the same size, sample rate and number of bins
+	private static Map<String, double[]> frequencyTables = new HashMap<String, double[]>();
 	
 	public FFT(double[][] fftValues, double fs) {
-		this.X = fftValues;
+		this(fftValues, fs, fftValues.length);
+	}
+	
+	public FFT(double[][] fftValues, double fs, int fftSize) {
+		this(new double[2*fftValues.length], fftValues.length, fs, fftSize);
+		for(int k = 0; k < numBins; k++) {
+			X[2*k] = fftValues[k][0];
+			X[2*k + 1] = fftValues[k][1];
+		}
+	}
+	
+	/**
+	 * Wraps an interleaved complex buffer, without copying it. The buffer may be reused
+	 * and rewritten by an FFTEngine, in which case this FFT always reflects its latest contents.
+	 */
+	public FFT(double[] fftValuesInterleaved, int numBins, double fs, int fftSize) {
+		this.X = fftValuesInterleaved;
+		this.numBins = numBins;
 		this.fs = fs;
+		this.N = fftSize;
+		this.kernels = VectorSupport.getSpectrumKernels();
+		this.frequencies = getFrequencyTable(fftSize, fs, numBins);
+	}
+	
+	/**
+	 * Must be called whenever the underlying FFT values are rewritten (FFTEngine does
+	 * this automatically when it computes into an FFT), so that the spectrum views are
+	 * recomputed the next time they're asked for.
+	 */
+	public void invalidate() {
+		powersValid = false;
+		magnitudesValid = false;
+		logMagnitudesValid = false;
+	}
+	
+	public int getFFTSize() {
+		return N;
+	}
+	
+	public int getNumBins() {
+		return numBins;
+	}
+	
+	/**
+	 * Returns true if this FFT only holds the non-redundant half of the spectrum.
+	 */
+	public boolean isHalfSpectrum() {
+		return numBins != N;
+	}
+	
+	/**
+	 * Returns the underlying interleaved (re, im) buffer. Not a copy!
+	 */
+	public double[] getInterleavedValues() {
+		return X;
 	}
 	
 	public double getNyquistFrequency() {
 		return fs/2;
 	}
 	
+	/**
+	 * Returns the power spectrum |X[k]|^2. No square roots needed! Shared; do not modify.
+	 */
+	public double[] getPowers() {
+		if (!powersValid) {
+			if (powers == null) {
+				powers = new double[numBins];
+			}
+			kernels.powers(X, numBins, powers);
+			powersValid = true;
+		}
+		return powers;
+	}
+	
+	/**
+	 * Returns the magnitudes |X[k]|. Shared; do not modify.
+	 */
 	public double[] getMagnitudes() {
-		double[] mags = new double[X.length];
-		
-		for(int k = 0; k < X.length; k++) {
-			mags[k] = Math.sqrt(X[k][0]*X[k][0] + X[k][1]*X[k][1]);
+		if (!magnitudesValid) {
+			if (magnitudes == null) {
+				magnitudes = new double[numBins];
+			}
+			kernels.magnitudes(X, numBins, magnitudes);
+			magnitudesValid = true;
 		}
-		
-		return mags;
-		
+		return magnitudes;
 	}
 	
+	/**
+	 * Returns the frequency of each bin, in Hz. Shared; do not modify.
+	 */
 	public double[] getFrequencies() {
-		double[] freqs = new double[X.length];
-		
-		double scale = fs / X.length;
-		
-		for(int i = 0; i < X.length; i++) {
-			freqs[i] = scale * i;
-		}
-		
-		return freqs;
+		return frequencies;
 	}
 	
+	/**
+	 * Returns log10(|X[k]|). Shared; do not modify.
+	 */
 	public double[] getLogMagnitudes() {
-		double[] mags = new double[X.length];
-		
-		for(int k = 0; k < X.length; k++) {
-			mags[k] = Math.log10(Math.sqrt(X[k][0]*X[k][0] + X[k][1]*X[k][1]));
+		if (!logMagnitudesValid) {
+			if (logMagnitudes == null) {
+				logMagnitudes = new double[numBins];
+			}
+			kernels.logMagnitudes(X, numBins, logMagnitudes);
+			logMagnitudesValid = true;
+		}
+		return logMagnitudes;
+	}
+	
+	/**
+	 * Returns the (shared) table of bin frequencies for an FFT with the given size, sample rate and number of bins.
+	 */
+	public static synchronized double[] getFrequencyTable(int fftSize, double fs, int numBins) {
+		String key = fftSize + "," + fs + "," + numBins;
+		double[] freqs = frequencyTables.get(key);
+		
+		if (freqs == null) {
+			freqs = new double[numBins];
+			double scale = fs / fftSize;
+			for(int i = 0; i < numBins; i++) {
+				freqs[i] = scale * i;
+			}
+			frequencyTables.put(key, freqs);
 		}
 		
-		return mags;
+		return freqs;
 	}
 	
 	
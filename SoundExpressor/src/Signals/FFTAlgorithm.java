@@ -0,0 +1,31 @@
+package Signals;
+
+/**
+ * A particular way of scheduling the butterfly computations of an N point complex FFT.
+ * 
+ * All algorithms operate in place on an interleaved (re, im) buffer whose first N complex
+ * values have already been loaded in bit-reversed order (see FFTEngine), and leave the
+ * FFT in natural order. Implementations only hold read-only precomputed tables, so a
+ * single instance may be shared between threads.
+ * 
+ * @author Steve Levine
+ *
+ */
+public interface FFTAlgorithm {
+	
+	/**
+	 * A short, unique name for this algorithm, i.e., "RADIX2".
+	 */
+	public String getName();
+	
+	/**
+	 * The size of the FFT this algorithm was prepared for.
+	 */
+	public int getFFTSize();
+	
+	/**
+	 * Run the butterflies in place on X, which must already be in bit-reversed order.
+	 */
+	public void computeButterflies(double[] X);
+	
+}
@@ -8,28 +8,60 @@ package Signals;
  * 
  * Upon being initialized, the FFT does a bunch of pre-computations to prepare itself.
  * This allows each FFT call to be run faster and more efficiently.
+ *
+ * All of the tables and complex buffers are flat arrays. Complex values are stored
+ * interleaved, so that element k of a complex buffer X is X[2k] + j*X[2k + 1]. The
+ * computeFFT(double[], double[]) and computeRealFFT(double[], double[]) methods write
+ * into a buffer owned by the caller, and do not allocate any memory at all.
  * 
+ * The butterflies themselves are done by a pluggable FFTAlgorithm. Unless one is asked
+ * for by name, the FFTPlanner times all of them on this computer and picks the fastest.
+ *
  * @author Steve Levine
  *
  */
 public class FFTEngine {
 	
-	// Some useful fields for this sized FFT
-	private int N;		// The size of the FFT, i.e., 1024
-	private int v;		// log2(N)
-	private double fs;	// The sample rate
+	// Some useful fields for this sized FFT. Nothing here changes after construction, so one
+	// engine can be shared between threads (see FFTRegistry).
+	private final int N;		// The size of the FFT, i.e., 1024
+	private final double fs;	// The sample rate
 	
 	private int[] bitReversedIndices;		// Map regular index to bit-reversed index
-	private double[][] WnPowers;			// Wn = exp(-j*2 PI / N), to several powers
-	private int[][][] butterflyMappings;	// Each of the v entries contains N/2 entries which are triples (p, q, k), such that the
-											// butterfly computation is executed on values with indices p and q,
-											// and the complex scale WnPowers[k] is used.
+	private FFTAlgorithm algorithm;			// Runs the butterflies for N point FFT's
+	
+	// Used for real-valued input signals only (see computeRealFFT)
+	private int[] halfBitReversedIndices;	// Bit-reversed indices for an N/2 point FFT
+	private FFTAlgorithm halfAlgorithm;		// Runs the butterflies for the N/2 point FFT of the packed real signal
+	private double[] realTwiddles;			// exp(-j*2 PI k / N) for k = 0 ... N/2, interleaved, used to unpack the half-size FFT
 	
 	
 	public FFTEngine(int fft_size, double fs) {
+		this(fft_size, fs, FFTPlanner.AUTO);
+	}
+
+	/**
+	 * Create an FFT engine that uses the named FFTAlgorithm, or FFTPlanner.AUTO to pick the fastest one.
+	 */
+	public FFTEngine(int fft_size, double fs, String algorithmName) {
 		N = fft_size;
-		v = (int) Math.round(Math.log(N)/Math.log(2));
 		this.fs = fs;
+
+		// Choose how to do the butterflies
+		if (algorithmName.equals(FFTPlanner.AUTO)) {
+			algorithm = FFTPlanner.planAlgorithm(N);
+			if (N >= 4) {
+				halfAlgorithm = FFTPlanner.planAlgorithm(N/2);
+			}
+		} else {
+			algorithm = FFTPlanner.createAlgorithm(algorithmName, N);
+			if (N >= 4) {
+				halfAlgorithm = FFTPlanner.createAlgorithm(algorithmName, N/2);
+			}
+		}
+		if (algorithm == null) {
+			throw new RuntimeException("Error: Unknown FFT algorithm \"" + algorithmName + "\"!");
+		}
 		
 		// Precompute lots of stuff, so we can fly on each FFT
 		prepareEngine();
@@ -40,102 +72,277 @@ public class FFTEngine {
 	private void prepareEngine() {
 		
 		// Set up the bit-reversed indices
-		bitReversedIndices = new int[N];
-		for(int i = 0; i < N; i++) {
+		bitReversedIndices = computeBitReversedIndices(N);
+		
+		// If we can, also prepare to compute FFT's of real-valued signals using an N/2 point FFT.
+		if (N >= 4) {
+			halfBitReversedIndices = computeBitReversedIndices(N/2);
+			realTwiddles = new double[N + 2];
+			for(int k = 0; k <= N/2; k++) {
+				double theta = - 2*Math.PI / N * k;
+				realTwiddles[2*k] = Math.cos(theta);
+				realTwiddles[2*k + 1] = Math.sin(theta);
+			}
+		}
+		
+		// All done!
+		
+	}
+	
+	// Map each index of an n point FFT to its bit-reversed index
+	static int[] computeBitReversedIndices(int n) {
+		int v = (int) Math.round(Math.log(n)/Math.log(2));	// log2(n)
+		int[] indices = new int[n];
+		for(int i = 0; i < n; i++) {
 			int bitReverse = 0;
 			for(int j = 0; j < v; j++) {
 				bitReverse |= ( (i >> (v - j - 1)) & 0x01  ) << j;
 			}
-			bitReversedIndices[i] = bitReverse;
+			indices[i] = bitReverse;
 		}
+		return indices;
+	}
+
+	
+	public int getFFTSize() {
+		return N;
+	}
+
+	public double getSampleRate() {
+		return fs;
+	}
+
+	public FFTAlgorithm getAlgorithm() {
+		return algorithm;
+	}
+
+
+	// Compute the FFT! This algorithm is optimized to use butterfly computations.
+	// Allocates a new buffer for the output; use computeFFT(double[], double[]) to avoid this.
+	public FFT computeFFT(double[] x) {
+		double[] X = new double[2*N];
+		computeFFT(x, X);
+
+		// Done! Return a wrapper class holding the computed values with the sample rate.
+		return new FFT(X, N, fs, N);
+	}
+
+
+	// Compute the FFT, writing all N complex bins into X (interleaved, length at least 2N).
+	// The main calculation consists solely of additions, multiplications, and array
+	// reads/writes. Computes in place. No Java class instantiations, memory allocations,
+	// function calls, etc. - this is to keep things as fast as possible.
+	//
+	public void computeFFT(double[] x, double[] X) {
 		
-		
-		// Pre-compute Wn raised to the relevant powers
-		WnPowers = new double[N/2][2];
-		for(int k = 0; k < N/2; k++) {
-			double theta = - 2*Math.PI / N * k;
-			WnPowers[k][0] = Math.cos(theta);
-			WnPowers[k][1] = Math.sin(theta);
+		// Basic error checking
+		if (x.length != N) {
+			throw new RuntimeException("Error: Invalid length signal for the given sized FFT!");
+		} else if (X.length < 2*N) {
+			throw new RuntimeException("Error: Output buffer is too small for the given sized FFT!");
 		}
 		
 		
-		// Precompute the ordering and Wn usage for each butterfly computation to be performed,
-		// for each v levels of the FFT.
-		butterflyMappings = new int[v][N/2][3];
-		// Iterate over each of the v levels of FFT butterfly computations
-		for(int L = 1; L <= v; L++) {
-			
-			int pairIndex = 0;
-			int WnIndex = 0;
-			int B = (1 << L); // The "block size" associated with this FFT level
-			
-			int i = 0;
-			while(i < N) {
-				for(int j = 0; j < B/2; j++) {
-					butterflyMappings[L - 1][pairIndex][0] = i + j;
-					butterflyMappings[L - 1][pairIndex][1] = i + j + B/2;
-					butterflyMappings[L - 1][pairIndex][2] = WnIndex;
-				
-					WnIndex = (WnIndex + (1 << (v - L))) % (N/2);
-					pairIndex++;
-				}
-				i += B;
-			}
-			
-			
+		// Start the list of complex registers
+		// Initialize with bit-reversed order input
+		for(int i = 0; i < N; i++) {
+			X[2*i] = x[bitReversedIndices[i]];
+			X[2*i + 1] = 0;
 		}
 		
-		// All done!
+		// Run the butterflies
+		algorithm.computeButterflies(X);
 		
 	}
+
+
+	// Compute the FFT into an existing FFT (which must hold N bins), and let it know that its values changed.
+	public void computeFFT(double[] x, FFT fft) {
+		if (fft.getFFTSize() != N || fft.getNumBins() != N) {
+			throw new RuntimeException("Error: FFT has the wrong size for this FFT engine!");
+		}
+		computeFFT(x, fft.getInterleavedValues());
+		fft.invalidate();
+	}
+		
+
+	// Compute the FFT of a real-valued signal. Allocates a new buffer for the output;
+	// use computeRealFFT(double[], double[]) to avoid this.
+	public FFT computeRealFFT(double[] x) {
+		double[] X = new double[N + 2];
+		computeRealFFT(x, X);
+
+		// Done! Only the non-redundant half of the spectrum is returned.
+		return new FFT(X, N/2 + 1, fs, N);
+	}
+
+
+	// Compute the FFT of a real-valued signal into an existing FFT (which must hold N/2 + 1 bins),
+	// and let it know that its values changed.
+	public void computeRealFFT(double[] x, FFT fft) {
+		checkRealOutput(fft);
+		computeRealFFT(x, fft.getInterleavedValues());
+		fft.invalidate();
+	}
 	
 	
-	// Compute the FFT! This algorithm is optimized to use butterfly computations.
-	// Additionally, the main calculation consists solely of additions, multiplications,
-	// and array reads/writes. Computes in place. No Java class instantiations, memory allocations, 
-	// function calls, etc. - this is to keep things as fast as possible.
+	// Compute the FFT of a real-valued signal. Since the spectrum of a real signal is conjugate
+	// symmetric, only the N/2 + 1 non-redundant bins (DC up to and including Nyquist) are computed,
+	// and are written into X (interleaved, length at least N + 2).
+	// 
+	// This uses the standard packing trick: the N real samples are treated as N/2 complex samples
+	// z[n] = x[2n] + j*x[2n + 1], an N/2 point complex FFT is taken, and the spectra of the even and
+	// odd samples are separated out and recombined with one last butterfly. This is roughly twice
+	// as fast as computeFFT on the same signal. Everything happens in place in X.
 	//
-	public FFT computeFFT(double[] x) {
+	public void computeRealFFT(double[] x, double[] X) {
 		
 		// Basic error checking
 		if (x.length != N) {
 			throw new RuntimeException("Error: Invalid length signal for the given sized FFT!");
 		}
+		checkRealOutput(X);
 		
+		int M = N / 2;
 		
-		// Start the list of complex registers
-		// Initialize with bit-reversed order input
-		double[][] X = new double[N][2];
-		for(int i = 0; i < N; i++) {
-			X[i][0] = x[bitReversedIndices[i]];
-			X[i][1] = 0;
-		}
-		
-		// Start the v levels of FFT butterfly computations!
-		for(int m = 0; m < v; m++) {
-			// Execute the butterfly computations, using the pre-computed ordering
-			for(int butterflyIndex = 0; butterflyIndex < N / 2; butterflyIndex++) {
-				// Retrieve the two indices
-				int p = butterflyMappings[m][butterflyIndex][0];
-				int q = butterflyMappings[m][butterflyIndex][1];
-				int WnIndex = butterflyMappings[m][butterflyIndex][2];
-				
-				double deltaR = WnPowers[WnIndex][0] * X[q][0] - WnPowers[WnIndex][1] * X[q][1];
-				double deltaI = WnPowers[WnIndex][0] * X[q][1] + WnPowers[WnIndex][1] * X[q][0]; 
-				
-				X[q][0] = X[p][0] - deltaR;
-				X[q][1] = X[p][1] - deltaI;
-				
-				X[p][0] = X[p][0] + deltaR;
-				X[p][1] = X[p][1] + deltaI;
-				
-				
-			}
+		// Pack the real signal into a half-length complex signal, in bit-reversed order
+		// for the half-sized engine.
+		for(int i = 0; i < M; i++) {
+			int n = halfBitReversedIndices[i];
+			X[2*i] = x[2*n];
+			X[2*i + 1] = x[2*n + 1];
 		}
 		
+		transformPackedReal(X);
+
+	}
+
+
+	// Window the real-valued signal x and compute its FFT into an existing FFT (which must hold
+	// N/2 + 1 bins). The same as window.apply(x, y) followed by computeRealFFT(y, fft), except that
+	// the windowing is folded into packing the samples for the half-sized FFT, so it takes one
+	// pass over the samples instead of two, and x is left untouched.
+	public void computeWindowedRealFFT(double[] x, Window window, FFT fft) {
+		if (x.length != N) {
+			throw new RuntimeException("Error: Invalid length signal for the given sized FFT!");
+		}
+		checkWindow(window.getCoefficients());
+		checkRealOutput(fft);
+
+		// A mask of all ones means no wrapping around
+		loadWindowedReal(x, 0, -1, window.getCoefficients(), fft.getInterleavedValues());
+		transformPackedReal(fft.getInterleavedValues());
+		fft.invalidate();
+	}
+
+
+	// Window the newest N samples in the ring (oldest first) and compute their FFT into an existing
+	// FFT (which must hold N/2 + 1 bins). The samples are read straight out of the ring, windowed,
+	// and packed for the half-sized FFT in one pass; the ring is left untouched.
+	public void computeWindowedRealFFT(SampleRing ring, Window window, FFT fft) {
+		checkRealOutput(fft);
+		computeWindowedRealFFT(ring, window.getCoefficients(), fft.getInterleavedValues());
+		fft.invalidate();
+	}
+
+
+	// The same, with the window given as raw coefficients (for windows with extra scaling folded
+	// in), writing into X (interleaved, length at least N + 2).
+	void computeWindowedRealFFT(SampleRing ring, double[] coefficients, double[] X) {
+		if (ring.getCapacity() < N) {
+			throw new RuntimeException("Error: Sample ring is too small for the given sized FFT!");
+		}
+		checkWindow(coefficients);
+		checkRealOutput(X);
+
+		loadWindowedReal(ring.samples, ring.cursor - N, ring.mask, coefficients, X);
+		transformPackedReal(X);
+	}
+
+
+	// The fused load stage: sample n of the frame is x[(begin + n) & mask]. It is multiplied by
+	// the window and packed into X as the half-length complex signal, in bit-reversed order.
+	// Bit reversal is its own inverse, so the samples and window are read straight through in
+	// order and scattered into X, rather than the other way around.
+	private void loadWindowedReal(double[] x, int begin, int mask, double[] w, double[] X) {
+		int[] indices = halfBitReversedIndices;
+		for(int n = 0; n < N; n += 2) {
+			int i = 2*indices[n >> 1];
+			X[i] = x[(begin + n) & mask] * w[n];
+			X[i + 1] = x[(begin + n + 1) & mask] * w[n + 1];
+		}
+	}
+
+
+	private void checkWindow(double[] coefficients) {
+		if (coefficients.length != N) {
+			throw new RuntimeException("Error: The window is the wrong size for this FFT!");
+		}
+	}
+
+	private void checkRealOutput(FFT fft) {
+		if (fft.getFFTSize() != N || fft.getNumBins() != N/2 + 1) {
+			throw new RuntimeException("Error: FFT has the wrong size for this FFT engine!");
+		}
+	}
+
+	private void checkRealOutput(double[] X) {
+		if (halfAlgorithm == null) {
+			throw new RuntimeException("Error: Real FFT's require an FFT size of at least 4!");
+		} else if (X.length < N + 2) {
+			throw new RuntimeException("Error: Output buffer is too small for the given sized FFT!");
+		}
+	}
+
+
+	// Finish a real FFT, given the real signal already packed into X as a half-length complex
+	// signal in bit-reversed order: run the half-sized FFT, and unpack the N/2 + 1 bins in place.
+	private void transformPackedReal(double[] X) {
+
+		int M = N / 2;
+
+		// Run the half-sized FFT
+		halfAlgorithm.computeButterflies(X);
 		
-		// Done! Return a wrapper class holding the computed values with the sample rate.
-		return new FFT(X, fs);
+		// Unpack. Letting E[k] and O[k] be the FFT's of the even and odd samples,
+		// E[k] = (Z[k] + conj(Z[M - k])) / 2 and O[k] = (Z[k] - conj(Z[M - k])) / 2j,
+		// and then X[k] = E[k] + W^k * O[k]. Since E[M - k] = conj(E[k]), O[M - k] = conj(O[k])
+		// and W^(M - k) = -conj(W^k), we also get X[M - k] = conj(E[k] - W^k * O[k]) for free,
+		// so bins k and M - k are unpacked together in place.
+
+		// DC and Nyquist are both purely real
+		double z0r = X[0];
+		double z0i = X[1];
+		X[0] = z0r + z0i;
+		X[1] = 0;
+		X[2*M] = z0r - z0i;
+		X[2*M + 1] = 0;
+
+		for(int k = 1; k <= M / 2; k++) {
+			int a = 2*k;
+			int b = 2*(M - k);
+
+			double zr = X[a];
+			double zi = X[a + 1];
+			double cr = X[b];
+			double ci = -X[b + 1];
+			
+			double er = 0.5 * (zr + cr);
+			double ei = 0.5 * (zi + ci);
+			double or = 0.5 * (zi - ci);
+			double oi = -0.5 * (zr - cr);
+			
+			double wr = realTwiddles[a];
+			double wi = realTwiddles[a + 1];
+			
+			double tr = wr * or - wi * oi;
+			double ti = wr * oi + wi * or;
+
+			X[a] = er + tr;
+			X[a + 1] = ei + ti;
+			X[b] = er - tr;
+			X[b + 1] = -(ei - ti);
+		}
 		
 	}
 	
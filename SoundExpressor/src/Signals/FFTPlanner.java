@@ -0,0 +1,221 @@
+package Signals;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Picks which FFTAlgorithm to use for each FFT size, in the spirit of FFTW's plans.
+ * 
+ * The fastest algorithm on a given computer depends a lot on its CPU and caches, so rather
+ * than guessing, the planner actually times each of the candidate algorithms the first
+ * time a size is needed, and keeps the fastest. The choice is remembered for the rest
+ * of the run, and is saved to a small plan cache file so that later runs on the same
+ * computer can skip the timing entirely.
+ * 
+ * @author Steve Levine
+ *
+ */
+public class FFTPlanner {
+	
+	// Special algorithm name meaning "time them all, and pick the fastest"
+	public static final String AUTO = "AUTO";
+	
+	// All of the plain Java algorithms that the planner knows about
+	public static final String[] ALGORITHM_NAMES = {FFTRadix2.NAME, FFTRadix4.NAME, FFTSplitRadix.NAME};
+	
+	// Only usable if VectorSupport says so
+	public static final String VECTOR_ALGORITHM_NAME = "VECTOR_RADIX2";
+	
+	// How long to spend timing each algorithm, in nanoseconds
+	private static final long WARMUP_TIME = 20000000;	// 20ms, to let the JIT compile things
+	private static final long TRIAL_TIME = 10000000;	// 10ms per timed trial
+	private static final int NUM_TRIALS = 3;
+	
+	private static String preferredAlgorithm = AUTO;
+	private static String planCacheFilename = "fft_plans.conf";
+	private static Map<Integer, String> plans = new HashMap<Integer, String>();
+	private static boolean planCacheLoaded = false;
+	
+	
+	/**
+	 * Forces a particular algorithm (by name) for every FFT size, or AUTO to time them.
+	 */
+	public static synchronized void setPreferredAlgorithm(String name) {
+		name = name.trim().toUpperCase();
+		if (!name.equals(AUTO) && !name.equals(VECTOR_ALGORITHM_NAME) && createAlgorithm(name, 2) == null) {
+			System.out.println("Warning: Unknown FFT algorithm \"" + name + "\", using " + AUTO + " instead.");
+			name = AUTO;
+		}
+		preferredAlgorithm = name;
+	}
+	
+	/**
+	 * Sets the file used to remember timing results between runs. Use null to disable the cache.
+	 */
+	public static synchronized void setPlanCacheFile(String filename) {
+		planCacheFilename = filename;
+		planCacheLoaded = false;
+	}
+	
+	/**
+	 * Create a new instance of the named algorithm for the given size, or null if there is no such algorithm.
+	 */
+	public static FFTAlgorithm createAlgorithm(String name, int fftSize) {
+		if (name.equals(FFTRadix2.NAME)) {
+			return new FFTRadix2(fftSize);
+		} else if (name.equals(FFTRadix4.NAME)) {
+			return new FFTRadix4(fftSize);
+		} else if (name.equals(FFTSplitRadix.NAME)) {
+			return new FFTSplitRadix(fftSize);
+		} else if (name.equals(VECTOR_ALGORITHM_NAME)) {
+			return VectorSupport.createVectorFFT(fftSize);
+		} else {
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the names of all of the algorithms that can actually be used on this computer.
+	 */
+	public static List<String> getAvailableAlgorithmNames() {
+		List<String> names = new ArrayList<String>(Arrays.asList(ALGORITHM_NAMES));
+		if (VectorSupport.isAvailable()) {
+			names.add(VECTOR_ALGORITHM_NAME);
+		}
+		return names;
+	}
+	
+	/**
+	 * Returns the best algorithm to use for an FFT of the given size.
+	 */
+	public static synchronized FFTAlgorithm planAlgorithm(int fftSize) {
+		
+		// Has the user forced a particular algorithm?
+		if (!preferredAlgorithm.equals(AUTO)) {
+			FFTAlgorithm algorithm = createAlgorithm(preferredAlgorithm, fftSize);
+			if (algorithm != null) {
+				return algorithm;
+			}
+			System.out.println("Warning: FFT algorithm " + preferredAlgorithm + " is not available, using " + FFTRadix2.NAME + " instead.");
+			return new FFTRadix2(fftSize);
+		}
+		
+		// Do we already know the answer, either from this run or a previous one?
+		loadPlanCache();
+		String name = plans.get(fftSize);
+		if (name != null) {
+			FFTAlgorithm algorithm = createAlgorithm(name, fftSize);
+			if (algorithm != null) {
+				return algorithm;
+			}
+		}
+		
+		// Nope. Time all of them, and keep the fastest!
+		FFTAlgorithm best = null;
+		double bestTime = Double.MAX_VALUE;
+		for(String candidate : getAvailableAlgorithmNames()) {
+			FFTAlgorithm algorithm = createAlgorithm(candidate, fftSize);
+			double time = timeAlgorithm(algorithm);
+			if (time < bestTime) {
+				bestTime = time;
+				best = algorithm;
+			}
+		}
+		
+		System.out.println("FFT planner: using " + best.getName() + " for " + fftSize + " point FFT's (" + (bestTime / 1000.0) + " us)");
+		plans.put(fftSize, best.getName());
+		savePlanCache();
+		
+		return best;
+		
+	}
+	
+	// Return the best average time in nanoseconds that an algorithm took to run, over several trials.
+	private static double timeAlgorithm(FFTAlgorithm algorithm) {
+		int N = algorithm.getFFTSize();
+		double[] X = new double[2*N];
+		double[] x = new double[2*N];
+		for(int i = 0; i < 2*N; i++) {
+			x[i] = Math.random() - 0.5;
+		}
+		
+		// Warm up
+		long start = System.nanoTime();
+		while(System.nanoTime() - start < WARMUP_TIME) {
+			System.arraycopy(x, 0, X, 0, 2*N);
+			algorithm.computeButterflies(X);
+		}
+		
+		// Time a few trials, and keep the best one to ignore any hiccups from other programs.
+		double bestTime = Double.MAX_VALUE;
+		for(int trial = 0; trial < NUM_TRIALS; trial++) {
+			int numRuns = 0;
+			start = System.nanoTime();
+			long elapsed;
+			do {
+				System.arraycopy(x, 0, X, 0, 2*N);
+				algorithm.computeButterflies(X);
+				numRuns++;
+				elapsed = System.nanoTime() - start;
+			} while(elapsed < TRIAL_TIME);
+			
+			bestTime = Math.min(bestTime, (double) elapsed / numRuns);
+		}
+		
+		return bestTime;
+	}
+	
+	// Load previously measured plans from the plan cache file, if there is one.
+	private static void loadPlanCache() {
+		if (planCacheLoaded || planCacheFilename == null) {
+			return;
+		}
+		planCacheLoaded = true;
+		
+		Properties cache = new Properties();
+		try {
+			FileInputStream in = new FileInputStream(planCacheFilename);
+			cache.load(in);
+			in.close();
+		} catch (IOException e) {
+			// No plans saved yet - that's fine.
+			return;
+		}
+		
+		for(String key : cache.stringPropertyNames()) {
+			try {
+				plans.put(Integer.parseInt(key.trim()), cache.getProperty(key).trim().toUpperCase());
+			} catch (NumberFormatException e) {
+				System.out.println("Warning: Ignoring invalid FFT plan \"" + key + "\" in " + planCacheFilename);
+			}
+		}
+	}
+	
+	// Save all of the known plans to the plan cache file.
+	private static void savePlanCache() {
+		if (planCacheFilename == null) {
+			return;
+		}
+		
+		Properties cache = new Properties();
+		for(Integer size : plans.keySet()) {
+			cache.setProperty(size.toString(), plans.get(size));
+		}
+		
+		try {
+			FileOutputStream out = new FileOutputStream(planCacheFilename);
+			cache.store(out, "LightDJ FFT plans (FFT size = fastest algorithm). Delete this file to re-time them.");
+			out.close();
+		} catch (IOException e) {
+			System.out.println("Warning: Could not save FFT plans to " + planCacheFilename);
+		}
+	}
+	
+}
@@ -0,0 +1,104 @@
+package Signals;
+
+/**
+ * The classic radix-2 decimation-in-time FFT. Every one of the log2(N) levels of
+ * butterflies is looked up from a single flat, precomputed table.
+ * 
+ * @author Steve Levine
+ *
+ */
+public class FFTRadix2 implements FFTAlgorithm {
+	
+	public static final String NAME = "RADIX2";
+	
+	private int N;		// The size of the FFT, i.e., 1024
+	private int v;		// log2(N)
+	
+	private double[] WnPowers;				// Wn = exp(-j*2 PI / N), to several powers. Interleaved (re, im).
+	private int[] butterflyMappings;		// Each of the v levels contains N/2 triples (p, q, k), stored one after another, such
+											// that the butterfly computation is executed on values at offsets p and q of the
+											// interleaved buffer, and the complex scale at offset k of WnPowers is used.
+	
+	public FFTRadix2(int fft_size) {
+		N = fft_size;
+		v = (int) Math.round(Math.log(N)/Math.log(2));
+		
+		// Pre-compute Wn raised to the relevant powers
+		WnPowers = new double[N];
+		for(int k = 0; k < N/2; k++) {
+			double theta = - 2*Math.PI / N * k;
+			WnPowers[2*k] = Math.cos(theta);
+			WnPowers[2*k + 1] = Math.sin(theta);
+		}
+		
+		
+		// Precompute the ordering and Wn usage for each butterfly computation to be performed,
+		// for each v levels of the FFT. Offsets are stored pre-multiplied by 2, so that they
+		// index directly into the interleaved buffers.
+		butterflyMappings = new int[v * (N/2) * 3];
+		int mappingIndex = 0;
+		// Iterate over each of the v levels of FFT butterfly computations
+		for(int L = 1; L <= v; L++) {
+			
+			int WnIndex = 0;
+			int B = (1 << L); // The "block size" associated with this FFT level
+			
+			int i = 0;
+			while(i < N) {
+				for(int j = 0; j < B/2; j++) {
+					butterflyMappings[mappingIndex++] = 2 * (i + j);
+					butterflyMappings[mappingIndex++] = 2 * (i + j + B/2);
+					butterflyMappings[mappingIndex++] = 2 * WnIndex;
+					
+					WnIndex = (WnIndex + (1 << (v - L))) % (N/2);
+				}
+				i += B;
+			}
+			
+		}
+		
+	}
+	
+	public String getName() {
+		return NAME;
+	}
+	
+	public int getFFTSize() {
+		return N;
+	}
+	
+	public void computeButterflies(double[] X) {
+		
+		int[] mappings = butterflyMappings;
+		double[] Wn = WnPowers;
+		int numMappings = mappings.length;
+		
+		// Run through all v levels of FFT butterfly computations, using the pre-computed ordering.
+		for(int i = 0; i < numMappings; i += 3) {
+			// Retrieve the two offsets, and the twiddle offset
+			int p = mappings[i];
+			int q = mappings[i + 1];
+			int w = mappings[i + 2];
+			
+			double wr = Wn[w];
+			double wi = Wn[w + 1];
+			double qr = X[q];
+			double qi = X[q + 1];
+			
+			double deltaR = wr * qr - wi * qi;
+			double deltaI = wr * qi + wi * qr;
+			
+			double pr = X[p];
+			double pi = X[p + 1];
+			
+			X[q] = pr - deltaR;
+			X[q + 1] = pi - deltaI;
+			
+			X[p] = pr + deltaR;
+			X[p + 1] = pi + deltaI;
+			
+		}
+		
+	}
+	
+}
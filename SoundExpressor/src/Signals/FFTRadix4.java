@@ -0,0 +1,118 @@
+package Signals;
+
+/**
+ * A radix-4 decimation-in-time FFT. Each pass merges four interleaved quarter-size
+ * FFT's at once, which takes 3 complex multiplies per 4 points instead of the 4 that two
+ * radix-2 levels would take, and makes half as many passes over the data. If log2(N) is
+ * odd, one plain radix-2 level (which needs no multiplies at all) is done first.
+ * 
+ * Works on the same bit-reversed input as the radix-2 FFT: within a block of size 4h,
+ * the four quarters hold the FFT's of the samples at offsets 0, 2, 1, 3 (mod 4).
+ * 
+ * @author Steve Levine
+ *
+ */
+public class FFTRadix4 implements FFTAlgorithm {
+	
+	public static final String NAME = "RADIX4";
+	
+	private int N;		// The size of the FFT, i.e., 1024
+	private int v;		// log2(N)
+	
+	private double[] WnPowers;		// Wn = exp(-j*2 PI / N), to the powers 0 ... N - 1. Interleaved (re, im).
+	
+	public FFTRadix4(int fft_size) {
+		N = fft_size;
+		v = (int) Math.round(Math.log(N)/Math.log(2));
+		
+		// Pre-compute Wn raised to the relevant powers. Radix-4 needs up to W^(3N/4).
+		WnPowers = new double[2*N];
+		for(int k = 0; k < N; k++) {
+			double theta = - 2*Math.PI / N * k;
+			WnPowers[2*k] = Math.cos(theta);
+			WnPowers[2*k + 1] = Math.sin(theta);
+		}
+	}
+	
+	public String getName() {
+		return NAME;
+	}
+	
+	public int getFFTSize() {
+		return N;
+	}
+	
+	public void computeButterflies(double[] X) {
+		
+		double[] Wn = WnPowers;
+		int h = 1;	// The size of the sub-FFT's being merged
+		
+		// If there are an odd number of levels, do one radix-2 level first. All of its twiddles are 1.
+		if (v % 2 == 1) {
+			for(int p = 0; p < 2*N; p += 4) {
+				double ar = X[p];
+				double ai = X[p + 1];
+				double br = X[p + 2];
+				double bi = X[p + 3];
+				X[p] = ar + br;
+				X[p + 1] = ai + bi;
+				X[p + 2] = ar - br;
+				X[p + 3] = ai - bi;
+			}
+			h = 2;
+		}
+		
+		// Now the radix-4 levels, merging four FFT's of size h into one of size 4h.
+		for(; h < N; h *= 4) {
+			int stride = N / (4*h);		// W_4h^j = W_N^(j*stride)
+			
+			for(int block = 0; block < N; block += 4*h) {
+				for(int j = 0; j < h; j++) {
+					int a = 2*(block + j);
+					int b = a + 2*h;
+					int c = b + 2*h;
+					int d = c + 2*h;
+					
+					// The quarters are, in order, the FFT's of the samples at offsets 0, 2, 1, 3 (mod 4),
+					// so twiddle them by W^0, W^2j, W^j, W^3j.
+					int w1 = 2*(j*stride);
+					int w2 = 2*w1;
+					int w3 = w1 + w2;
+					
+					double ar = X[a];
+					double ai = X[a + 1];
+					
+					double br = Wn[w2] * X[b] - Wn[w2 + 1] * X[b + 1];
+					double bi = Wn[w2] * X[b + 1] + Wn[w2 + 1] * X[b];
+					
+					double cr = Wn[w1] * X[c] - Wn[w1 + 1] * X[c + 1];
+					double ci = Wn[w1] * X[c + 1] + Wn[w1 + 1] * X[c];
+					
+					double dr = Wn[w3] * X[d] - Wn[w3 + 1] * X[d + 1];
+					double di = Wn[w3] * X[d + 1] + Wn[w3 + 1] * X[d];
+					
+					// A 4 point DFT, using W_4 = -j
+					double s0r = ar + br;
+					double s0i = ai + bi;
+					double s1r = ar - br;
+					double s1i = ai - bi;
+					double s2r = cr + dr;
+					double s2i = ci + di;
+					double s3r = cr - dr;
+					double s3i = ci - di;
+					
+					X[a] = s0r + s2r;
+					X[a + 1] = s0i + s2i;
+					X[b] = s1r + s3i;		// s1 - j*s3
+					X[b + 1] = s1i - s3r;
+					X[c] = s0r - s2r;
+					X[c + 1] = s0i - s2i;
+					X[d] = s1r - s3i;		// s1 + j*s3
+					X[d + 1] = s1i + s3r;
+				}
+			}
+		}
+		
+	}
+	
+}
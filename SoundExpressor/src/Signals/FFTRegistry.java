@@ -0,0 +1,59 @@
+package Signals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A process-wide cache of FFTEngines and Windows, so that every engine that needs, say,
+ * a 2048 point FFT at 44.1kHz with a Hann window shares the same precomputed tables
+ * instead of building (and planning) its own. This makes starting up several analysis
+ * engines side by side (multiple inputs, offline batch analysis, etc.) cheap.
+ * 
+ * Everything handed out is immutable after construction, and so is safe to share between
+ * threads. FFTEngines write only into the buffers they are given, never into themselves.
+ * 
+ * @author Steve Levine
+ *
+ */
+public class FFTRegistry {
+	
+	private static Map<String, FFTEngine> engines = new HashMap<String, FFTEngine>();
+	private static Map<String, Window> windows = new HashMap<String, Window>();
+	
+	
+	/**
+	 * Returns the shared FFTEngine for the given FFT size and sample rate, creating it the first time.
+	 */
+	public static synchronized FFTEngine getEngine(int fftSize, double fs) {
+		String key = fftSize + "," + fs;
+		FFTEngine engine = engines.get(key);
+		if (engine == null) {
+			engine = new FFTEngine(fftSize, fs);
+			engines.put(key, engine);
+		}
+		return engine;
+	}
+	
+	/**
+	 * Returns the shared Window of the given type and size, creating it the first time.
+	 */
+	public static synchronized Window getWindow(Window.Type type, int size) {
+		String key = type + "," + size;
+		Window window = windows.get(key);
+		if (window == null) {
+			window = new Window(type, size);
+			windows.put(key, window);
+		}
+		return window;
+	}
+	
+	/**
+	 * Forget everything, for example after changing the FFT algorithm settings.
+	 * Engines and windows that are already in use keep working.
+	 */
+	public static synchronized void clear() {
+		engines.clear();
+		windows.clear();
+	}
+	
+}
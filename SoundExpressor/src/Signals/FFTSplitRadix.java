@@ -0,0 +1,112 @@
+package Signals;
+
+/**
+ * A split-radix decimation-in-time FFT. An N point FFT is built from one N/2 point FFT of the
+ * even samples and two N/4 point FFT's of the samples at offsets 1 and 3 (mod 4). This has the
+ * lowest arithmetic count of the FFT's here, at the cost of a less regular (recursive) schedule.
+ * 
+ * Works on the same bit-reversed input as the radix-2 FFT: the first half of any block holds
+ * the (bit-reversed) even samples, and the two quarters after it hold the (bit-reversed)
+ * samples at offsets 1 and 3 (mod 4).
+ * 
+ * @author Steve Levine
+ *
+ */
+public class FFTSplitRadix implements FFTAlgorithm {
+	
+	public static final String NAME = "SPLIT_RADIX";
+	
+	private int N;		// The size of the FFT, i.e., 1024
+	
+	private double[] WnPowers;		// Wn = exp(-j*2 PI / N), to the powers 0 ... N - 1. Interleaved (re, im).
+	
+	public FFTSplitRadix(int fft_size) {
+		N = fft_size;
+		
+		// Pre-compute Wn raised to the relevant powers. Split-radix needs up to W^(3N/4).
+		WnPowers = new double[2*N];
+		for(int k = 0; k < N; k++) {
+			double theta = - 2*Math.PI / N * k;
+			WnPowers[2*k] = Math.cos(theta);
+			WnPowers[2*k + 1] = Math.sin(theta);
+		}
+	}
+	
+	public String getName() {
+		return NAME;
+	}
+	
+	public int getFFTSize() {
+		return N;
+	}
+	
+	public void computeButterflies(double[] X) {
+		computeBlock(X, 0, N);
+	}
+	
+	// Compute the n point FFT of the block starting at complex index offset.
+	private void computeBlock(double[] X, int offset, int n) {
+		
+		if (n == 1) {
+			return;
+		} else if (n == 2) {
+			int a = 2*offset;
+			double ar = X[a];
+			double ai = X[a + 1];
+			double br = X[a + 2];
+			double bi = X[a + 3];
+			X[a] = ar + br;
+			X[a + 1] = ai + bi;
+			X[a + 2] = ar - br;
+			X[a + 3] = ai - bi;
+			return;
+		}
+		
+		int quarter = n / 4;
+		
+		// Recurse on the evens (U), and the two odd quarters (Z and Z')
+		computeBlock(X, offset, n/2);
+		computeBlock(X, offset + n/2, quarter);
+		computeBlock(X, offset + 3*quarter, quarter);
+		
+		double[] Wn = WnPowers;
+		int stride = N / n;		// W_n^k = W_N^(k*stride)
+		
+		// Combine with L-shaped butterflies
+		for(int k = 0; k < quarter; k++) {
+			int u0 = 2*(offset + k);
+			int u1 = u0 + 2*quarter;
+			int z0 = u1 + 2*quarter;
+			int z1 = z0 + 2*quarter;
+			
+			int w1 = 2*(k*stride);
+			int w3 = 3*w1;
+			
+			double zr = Wn[w1] * X[z0] - Wn[w1 + 1] * X[z0 + 1];
+			double zi = Wn[w1] * X[z0 + 1] + Wn[w1 + 1] * X[z0];
+			double z3r = Wn[w3] * X[z1] - Wn[w3 + 1] * X[z1 + 1];
+			double z3i = Wn[w3] * X[z1 + 1] + Wn[w3 + 1] * X[z1];
+			
+			double sumR = zr + z3r;
+			double sumI = zi + z3i;
+			double difR = zr - z3r;
+			double difI = zi - z3i;
+			
+			double u0r = X[u0];
+			double u0i = X[u0 + 1];
+			double u1r = X[u1];
+			double u1i = X[u1 + 1];
+			
+			X[u0] = u0r + sumR;
+			X[u0 + 1] = u0i + sumI;
+			X[z0] = u0r - sumR;
+			X[z0 + 1] = u0i - sumI;
+			X[u1] = u1r + difI;		// U[k + n/4] - j*(Z - Z')
+			X[u1 + 1] = u1i - difR;
+			X[z1] = u1r - difI;		// U[k + n/4] + j*(Z - Z')
+			X[z1 + 1] = u1i + difR;
+		}
+		
+	}
+	
+}
@@ -5,57 +5,99 @@ package Signals;
  * 
  * y[n] = a0*x[n] + a1*x[n - 1] + ... + b0*y[n - 1] + b1*y[n - 2]
  *
+ * The filter remembers its state between calls, so a live stream can be fed through it a
+ * sample (filterSample) or a block (filterBlock) at a time, with no memory allocated. It is
+ * implemented in transposed direct form II, which only needs one delay line of length
+ * max(# of a's - 1, # of b's) instead of separate histories of past inputs and outputs.
+ *
+ * For anything past second order, a BiquadCascade is numerically much better behaved.
+ *
  */
 public class LinearFilter {
 	private double[] b_coeffs;
 	private double[] a_coeffs;
 	
+	// The same coefficients, both padded out to the length of the delay line plus one.
+	// num[j] multiplies x[n - j], and den[j] multiplies y[n - j] (den[0] is unused).
+	private double[] num;
+	private double[] den;
+	
+	// The transposed direct form II delay line
+	private double[] state;
+	
 	public LinearFilter(double[] a, double[] b) {
 		b_coeffs = b;
 		a_coeffs = a;
+		
+		int K = Math.max(a.length - 1, b.length);
+		num = new double[K + 1];
+		den = new double[K + 1];
+		for(int j = 0; j < a.length; j++) {
+			num[j] = a[j];
+		}
+		for(int j = 0; j < b.length; j++) {
+			den[j + 1] = b[j];
+		}
+		state = new double[K];
 	}
 	
 	public int order() {return b_coeffs.length;}
 	
 	
 	/**
-	 * Filter the signal x!
+	 * Forget all past inputs and outputs.
+	 */
+	public void reset() {
+		for(int j = 0; j < state.length; j++) {
+			state[j] = 0;
+		}
+	}
+	
+	
+	/**
+	 * Filter the next sample of the stream, and return the next output sample.
+	 */
+	public double filterSample(double x) {
+		int K = state.length;
+		if (K == 0) {
+			return num[0] * x;
+		}
+		
+		double y = num[0] * x + state[0];
+		for(int j = 0; j < K - 1; j++) {
+			state[j] = state[j + 1] + num[j + 1] * x + den[j + 1] * y;
+		}
+		state[K - 1] = num[K] * x + den[K] * y;
+		return y;
+	}
+	
+	
+	/**
+	 * Filter the next length samples of the stream, x[offset] ... x[offset + length - 1],
+	 * in place.
+	 */
+	public void filterBlock(double[] x, int offset, int length) {
+		for(int i = offset; i < offset + length; i++) {
+			x[i] = filterSample(x[i]);
+		}
+	}
+	
+	
+	/**
+	 * Filter the signal x! Starts from scratch (as if all past samples were 0), and
+	 * doesn't affect the state of the stream.
 	 * @param x
 	 * @return
 	 */
 	public double[] filterSignal(double[] x) {
 		
-		double[] y_past = new double[b_coeffs.length];
-		double[] x_past = new double[a_coeffs.length];
-		
-		double[] y = new double[x.length];
+		double[] savedState = state;
+		state = new double[savedState.length];
 		
-		for(int i = 0; i < x.length; i++) {
-			// Compute!
-			double sum = 0;
-			for(int j = 0; j < x_past.length; j++) {
-				sum += (a_coeffs[j] * x_past[j]);
-			}
-			
-			for(int j = 0; j < y_past.length; j++) {
-				sum += (b_coeffs[j] * y_past[j]);
-			}
-			
-			y[i] = sum;
-			
-			// Now, shift everything!
-			for(int j = x_past.length - 2; j >= 0; j--) {
-				x_past[j + 1] = x_past[j];
-			}
-			x_past[0] = x[i];
-			
-			for(int j = y_past.length - 2; j >= 0; j--) {
-				y_past[j + 1] = y_past[j];
-			}
-			y_past[0] = y[i];
-			
-		}
+		double[] y = x.clone();
+		filterBlock(y, 0, y.length);
 		
+		state = savedState;
 		return y;
 		
 	}
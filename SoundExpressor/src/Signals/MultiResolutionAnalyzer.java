@@ -0,0 +1,151 @@
+package Signals;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Computes spectra of the same audio at several different FFT sizes every hop, each on its own
+ * core. Short FFT's (say 256 points, ~6ms at 44.1kHz) react quickly to transients like claps,
+ * while long ones (say 4096 points) can tell apart the low bass notes, so each FeatureDetector
+ * can get whichever one suits it best.
+ *
+ * Every resolution is computed from the most recent samples in a shared SampleRing at the end of
+ * each hop, so they all line up in time; a short FFT just looks back over less audio than a long
+ * one. The ring must be big enough for the largest FFT, and nothing may be added to it between
+ * startAnalysis() and finishAnalysis(). Each resolution
+ * gets its own worker thread. Call startAnalysis() at the end of a hop, do any other work (like
+ * the main FFT), and then finishAnalysis() to wait for them all to be done.
+ *
+ * So that FeatureDetectors with thresholds tuned for one FFT size still behave sensibly at
+ * another, every spectrum is scaled to the given reference FFT size: a steady tone comes out
+ * with the same magnitude at every resolution.
+ *
+ * @author Steve Levine
+ *
+ */
+public class MultiResolutionAnalyzer {
+
+	private final double fs;
+
+	// The most recent samples, shared with whoever is feeding them in
+	private final SampleRing ring;
+
+	private Resolution[] resolutions;
+	private volatile boolean shutDown = false;
+
+
+	public MultiResolutionAnalyzer(int[] fftSizes, double fs, Window.Type windowType, int referenceSize, SampleRing ring) {
+		this.fs = fs;
+		this.ring = ring;
+
+		for(int size : fftSizes) {
+			if (size < 4 || Integer.bitCount(size) != 1) {
+				throw new RuntimeException("Error: FFT sizes must be powers of 2, and at least 4!");
+			} else if (size > ring.getCapacity()) {
+				throw new RuntimeException("Error: The sample ring is too small for a " + size + " point FFT!");
+			}
+		}
+
+		resolutions = new Resolution[fftSizes.length];
+		for(int i = 0; i < fftSizes.length; i++) {
+			resolutions[i] = new Resolution(fftSizes[i], windowType, (double) referenceSize / fftSizes[i]);
+			Thread thread = new Thread(resolutions[i], "Analysis (" + fftSizes[i] + " point FFT)");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+
+	public double getSampleRate() {
+		return fs;
+	}
+
+	/**
+	 * Returns the spectrum for the given FFT size, or null if that size isn't being computed.
+	 * Only valid after finishAnalysis(), until the next startAnalysis().
+	 */
+	public FFT getFFT(int fftSize) {
+		for(Resolution resolution : resolutions) {
+			if (resolution.N == fftSize) {
+				return resolution.fft;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Start computing the spectra of the most recent samples, at every resolution, in the background.
+	 */
+	public void startAnalysis() {
+		for(Resolution resolution : resolutions) {
+			resolution.start.release();
+		}
+	}
+
+	/**
+	 * Wait for all of the spectra started by startAnalysis() to be done.
+	 */
+	public void finishAnalysis() {
+		for(Resolution resolution : resolutions) {
+			resolution.done.acquireUninterruptibly();
+		}
+	}
+
+	/**
+	 * Stop all of the worker threads, once they finish what they're doing. The analyzer can't
+	 * be used after this.
+	 */
+	public void shutDown() {
+		shutDown = true;
+		for(Resolution resolution : resolutions) {
+			resolution.start.release();
+		}
+	}
+
+
+	// One FFT size, and the worker thread that computes it
+	private class Resolution implements Runnable {
+
+		final int N;
+		final FFTEngine engine;
+		final double[] window;			// Window coefficients, with the reference scaling folded in
+		final FFT fft;
+		final Semaphore start = new Semaphore(0);
+		final Semaphore done = new Semaphore(0);
+
+		Resolution(int fftSize, Window.Type windowType, double scale) {
+			N = fftSize;
+			engine = FFTRegistry.getEngine(N, fs);
+			Window w = FFTRegistry.getWindow(windowType, N);
+			window = new double[N];
+			for(int n = 0; n < N; n++) {
+				window[n] = scale * w.getCoefficient(n);
+			}
+			fft = new FFT(new double[N + 2], N/2 + 1, fs, N);
+		}
+
+		@Override
+		public void run() {
+			while(true) {
+				start.acquireUninterruptibly();
+				if (shutDown) {
+					return;
+				}
+				try {
+					// Window the newest N samples straight out of the ring, and take their FFT
+					engine.computeWindowedRealFFT(ring, window, fft.getInterleavedValues());
+					fft.invalidate();
+
+					// Almost everything wants the power spectrum, so get it computed here too
+					fft.getPowers();
+
+				} catch (Exception e) {
+					System.out.println("Error computing the " + N + " point FFT!");
+					e.printStackTrace();
+				} finally {
+					done.release();
+				}
+			}
+		}
+	}
+
+}
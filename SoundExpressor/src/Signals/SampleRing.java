@@ -0,0 +1,133 @@
+package Signals;
+
+/**
+ * A circular buffer holding the most recent samples of an audio stream. Each sample is written
+ * into it exactly once, as it comes in, and whole frames (the newest N samples, oldest first)
+ * can then be read back out whenever it's time to take an FFT - optionally windowed on the way,
+ * into a reusable scratch buffer. This replaces keeping a separate buffer for each overlapping
+ * frame, which copied every sample once per frame.
+ *
+ * The capacity is always a power of 2, so wrapping around is just a mask. Until the ring fills
+ * up, the missing older samples read back as zero.
+ *
+ * Not thread safe for writing. Several threads may read frames at the same time, as long as
+ * nothing is being added while they do.
+ *
+ * @author Steve Levine
+ *
+ */
+public class SampleRing {
+
+	final double[] samples;
+	final int mask;
+	int cursor = 0;			// Where the next sample goes (so the newest sample is just before it)
+
+
+	/**
+	 * Create a ring that remembers at least the given number of samples.
+	 */
+	public SampleRing(int minCapacity) {
+		if (minCapacity < 1) {
+			throw new RuntimeException("Error: Sample ring must hold at least one sample!");
+		}
+		int capacity = Integer.highestOneBit(minCapacity);
+		if (capacity < minCapacity) {
+			capacity <<= 1;
+		}
+		samples = new double[capacity];
+		mask = capacity - 1;
+	}
+
+	public int getCapacity() {
+		return samples.length;
+	}
+
+
+	/**
+	 * Add the next sample of the stream, overwriting the oldest one.
+	 */
+	public void add(double x) {
+		samples[cursor] = x;
+		cursor = (cursor + 1) & mask;
+	}
+
+
+	/**
+	 * Add the next length samples of the stream, x[offset] ... x[offset + length - 1], overwriting
+	 * the oldest ones.
+	 */
+	public void addBlock(double[] x, int offset, int length) {
+		// Anything older than the capacity would just be overwritten anyway
+		if (length > samples.length) {
+			offset += length - samples.length;
+			length = samples.length;
+		}
+
+		int first = Math.min(length, samples.length - cursor);
+		System.arraycopy(x, offset, samples, cursor, first);
+		System.arraycopy(x, offset + first, samples, 0, length - first);
+		cursor = (cursor + length) & mask;
+	}
+
+
+	/**
+	 * Forget all of the samples.
+	 */
+	public void clear() {
+		for(int i = 0; i < samples.length; i++) {
+			samples[i] = 0;
+		}
+		cursor = 0;
+	}
+
+
+	/**
+	 * Copy the newest length samples into frame[0] ... frame[length - 1], oldest first.
+	 */
+	public void readFrame(double[] frame, int length) {
+		checkLength(frame, length);
+
+		// At most two contiguous pieces: up to the end of the ring, and then from the start
+		int begin = (cursor - length) & mask;
+		int first = Math.min(length, samples.length - begin);
+		System.arraycopy(samples, begin, frame, 0, first);
+		System.arraycopy(samples, 0, frame, first, length - first);
+	}
+
+
+	/**
+	 * Copy the newest window.getSize() samples into frame, oldest first, multiplying in the
+	 * window as they're copied. The ring itself is left untouched.
+	 */
+	public void readWindowedFrame(Window window, double[] frame) {
+		readWindowedFrame(window.getCoefficients(), frame, window.getSize());
+	}
+
+
+	/**
+	 * Copy the newest length samples into frame, oldest first, multiplied by the given window
+	 * coefficients. The ring itself is left untouched.
+	 */
+	public void readWindowedFrame(double[] coefficients, double[] frame, int length) {
+		checkLength(frame, length);
+
+		int begin = (cursor - length) & mask;
+		int first = Math.min(length, samples.length - begin);
+		for(int n = 0; n < first; n++) {
+			frame[n] = samples[begin + n] * coefficients[n];
+		}
+		for(int n = first; n < length; n++) {
+			frame[n] = samples[n - first] * coefficients[n];
+		}
+	}
+
+
+	private void checkLength(double[] frame, int length) {
+		if (length > samples.length) {
+			throw new RuntimeException("Error: Can't read " + length + " samples from a ring that only holds " + samples.length + "!");
+		} else if (frame.length < length) {
+			throw new RuntimeException("Error: Frame is too short to hold " + length + " samples!");
+		}
+	}
+
+}
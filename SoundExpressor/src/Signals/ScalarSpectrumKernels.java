@@ -0,0 +1,35 @@
+package Signals;
+
+/**
+ * Plain Java loops for SpectrumKernels. Always available.
+ * 
+ * @author Steve Levine
+ *
+ */
+public class ScalarSpectrumKernels implements SpectrumKernels {
+	
+	public void powers(double[] X, int numBins, double[] out) {
+		for(int k = 0; k < numBins; k++) {
+			double re = X[2*k];
+			double im = X[2*k + 1];
+			out[k] = re*re + im*im;
+		}
+	}
+	
+	public void magnitudes(double[] X, int numBins, double[] out) {
+		for(int k = 0; k < numBins; k++) {
+			double re = X[2*k];
+			double im = X[2*k + 1];
+			out[k] = Math.sqrt(re*re + im*im);
+		}
+	}
+	
+	public void logMagnitudes(double[] X, int numBins, double[] out) {
+		for(int k = 0; k < numBins; k++) {
+			double re = X[2*k];
+			double im = X[2*k + 1];
+			out[k] = Math.log10(Math.sqrt(re*re + im*im));
+		}
+	}
+	
+}
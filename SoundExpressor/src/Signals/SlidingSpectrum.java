@@ -0,0 +1,329 @@
+package Signals;
+
+/**
+ * Computes the spectrum of a sliding, heavily overlapped N point frame, hop by hop, by only
+ * transforming the newest hop of samples rather than the whole frame each time.
+ *
+ * The frame is made up of B = N / H hops of H samples each. Letting Y_i[k] be the N point
+ * DFT of hop i zero-padded out to N samples (with i = 0 being the oldest hop in the frame),
+ * the (unwindowed) spectrum of the frame is
+ *
+ *     S[k] = sum over i of W^(k*i*H) * Y_i[k],   where W = exp(-j*2 PI / N)
+ *
+ * When a new hop comes in and the oldest one falls out, this can be updated recursively as
+ * S[k] <- (S[k] - Y_oldest[k] + Y_newest[k]) * W^(-k*H), so each hop only costs the DFT of
+ * the new hop plus one complex multiply per bin.
+ *
+ * The zero-padded DFT of the new hop is found the same way FFTEngine.computeRealFFT works, by
+ * packing the H real samples into H/2 complex ones and taking an N/2 point complex FFT. That
+ * FFT is mostly zeros going in, so it is split up by residue instead: bins k = m*B + r with the
+ * same residue r are just the H/2 point FFT of the packed hop modulated by W_(N/2)^(r*n). That
+ * comes to B FFT's of size H/2 rather than one of size N/2.
+ *
+ * The window is applied in the frequency domain at the end. All of the Window types are sums
+ * of a few cosines, so multiplying by one is just a short convolution across neighboring bins.
+ *
+ * The results match the FFTEngine's to within rounding error; the running sum is rebuilt from
+ * scratch every so often so that rounding errors can't build up over a long run.
+ *
+ * Don't expect miracles speed-wise: the per-hop work only shrinks with log(H), not with H, and
+ * the bookkeeping eats most of that. At 2048 points it comes out about even with windowing and
+ * transforming the whole frame with the FFTEngine, from 4x all the way up to 128x overlap. What
+ * it does buy is that the cost per hop stays flat, and that only the newest hop of samples needs
+ * to be kept around and touched, no matter how high the overlap is.
+ *
+ * Not thread safe - each analysis thread needs its own SlidingSpectrum.
+ *
+ * @author Steve Levine
+ *
+ */
+public class SlidingSpectrum {
+
+	// How many hops to go between rebuilding the running sum from scratch
+	private static final int RESYNC_INTERVAL = 1024;
+
+	private final int N;			// The size of the frame (the "FFT size")
+	private final int H;			// The number of new samples per hop
+	private final int B;			// The number of hops in a frame
+	private final int M;			// N / 2, the size of the packed frame and the index of the Nyquist bin
+	private final int L;			// H / 2, the size of the packed hop
+	private final double fs;		// The sample rate
+	private final Window.Type windowType;
+
+	// For the H/2 point FFT's of the packed hop, one per residue
+	private FFTAlgorithm hopAlgorithm;
+	private int[] hopBitReversedIndices;
+	private double[][] modulations;		// modulations[r] = W_(N/2)^(r*n) for n = 0 ... H/2 - 1, interleaved
+	private double[][] residueSpectra;	// residueSpectra[r] = the H/2 point FFT of the packed hop modulated by the above
+	private int residueMask;			// k & residueMask = k mod B
+	private int residueShift;			// k >> residueShift = k / B
+	private double[] realTwiddles;		// exp(-j*2 PI k / N) for k = 0 ... N/4, interleaved, used to unpack
+
+	// The spectra of the last B hops, in a ring, each with M + 1 bins interleaved
+	private double[] hopSpectra;
+	private int oldestHop = 0;
+
+	// The running (unwindowed) spectrum of the frame, with 2 extra bins at each end for the window
+	// convolution. Bin k is stored at index 2*(k + 2).
+	private double[] S;
+	private double[] hopRotations;		// W^(-k*H), interleaved
+	private int hopsSinceResync = 0;
+
+	// The window, as a0 - a1*cos(2 PI n / N) + a2*cos(4 PI n / N)
+	private double a0, a1, a2;
+
+
+	public SlidingSpectrum(int fft_size, int hop_size, double fs, Window.Type windowType) {
+
+		// Basic error checking
+		if (fft_size < 4 || Integer.bitCount(fft_size) != 1) {
+			throw new RuntimeException("Error: The frame size must be a power of 2, and at least 4!");
+		} else if (hop_size < 4 || hop_size > fft_size || Integer.bitCount(hop_size) != 1) {
+			throw new RuntimeException("Error: The hop size must be a power of 2, from 4 up to the frame size!");
+		}
+
+		N = fft_size;
+		H = hop_size;
+		B = N / H;
+		M = N / 2;
+		L = H / 2;
+		this.fs = fs;
+		this.windowType = windowType;
+
+		switch(windowType) {
+		case RECTANGULAR:
+			a0 = 1.0; a1 = 0.0; a2 = 0.0;
+			break;
+		case HANN:
+			a0 = 0.5; a1 = 0.5; a2 = 0.0;
+			break;
+		case HAMMING:
+			a0 = 0.54; a1 = 0.46; a2 = 0.0;
+			break;
+		case BLACKMAN:
+			a0 = 0.42; a1 = 0.5; a2 = 0.08;
+			break;
+		}
+
+		// Precompute lots of stuff, so each hop is fast
+		prepare();
+	}
+
+	// Set up all of the tables. This doesn't need to be fast, since it is only run once at the beginning.
+	private void prepare() {
+
+		hopAlgorithm = FFTPlanner.planAlgorithm(L);
+		hopBitReversedIndices = FFTEngine.computeBitReversedIndices(L);
+
+		modulations = new double[B][2*L];
+		residueSpectra = new double[B][2*L];
+		for(int r = 0; r < B; r++) {
+			for(int n = 0; n < L; n++) {
+				double theta = - 2*Math.PI / M * r * n;
+				modulations[r][2*n] = Math.cos(theta);
+				modulations[r][2*n + 1] = Math.sin(theta);
+			}
+		}
+		residueMask = B - 1;
+		residueShift = Integer.numberOfTrailingZeros(B);
+
+		realTwiddles = new double[M + 2];
+		for(int k = 0; k <= M/2; k++) {
+			double theta = - 2*Math.PI / N * k;
+			realTwiddles[2*k] = Math.cos(theta);
+			realTwiddles[2*k + 1] = Math.sin(theta);
+		}
+
+		hopSpectra = new double[B * (N + 2)];
+		S = new double[N + 10];
+		hopRotations = new double[N + 2];
+		for(int k = 0; k <= M; k++) {
+			double theta = 2*Math.PI / N * k * H;
+			hopRotations[2*k] = Math.cos(theta);
+			hopRotations[2*k + 1] = Math.sin(theta);
+		}
+
+	}
+
+
+	public int getFFTSize() {
+		return N;
+	}
+
+	public int getHopSize() {
+		return H;
+	}
+
+	public double getSampleRate() {
+		return fs;
+	}
+
+	public Window.Type getWindowType() {
+		return windowType;
+	}
+
+
+	/**
+	 * Forget all of the past samples, as if the frame were full of zeros.
+	 */
+	public void reset() {
+		for(int i = 0; i < hopSpectra.length; i++) {
+			hopSpectra[i] = 0;
+		}
+		for(int i = 0; i < S.length; i++) {
+			S[i] = 0;
+		}
+		oldestHop = 0;
+		hopsSinceResync = 0;
+	}
+
+
+	/**
+	 * Slide the frame along by one hop, and write the new windowed spectrum into an existing FFT
+	 * (which must hold N/2 + 1 bins). Lets the FFT know that its values changed.
+	 */
+	public void addHop(double[] hop, FFT fft) {
+		if (fft.getFFTSize() != N || fft.getNumBins() != M + 1) {
+			throw new RuntimeException("Error: FFT has the wrong size for this sliding spectrum!");
+		}
+		addHop(hop, fft.getInterleavedValues());
+		fft.invalidate();
+	}
+
+
+	/**
+	 * Slide the frame along by one hop (the H newest samples, oldest first), and write the
+	 * N/2 + 1 bins of the new windowed spectrum into X (interleaved, length at least N + 2).
+	 * These are the same values that FFTEngine.computeRealFFT would give for the windowed frame.
+	 * Doesn't allocate any memory.
+	 */
+	public void addHop(double[] hop, double[] X) {
+
+		// Basic error checking
+		if (hop.length < H) {
+			throw new RuntimeException("Error: Hop is too short for this sliding spectrum!");
+		} else if (X.length < N + 2) {
+			throw new RuntimeException("Error: Output buffer is too small for this sliding spectrum!");
+		}
+
+		// Pack the hop into H/2 complex samples z[n] = x[2n] + j*x[2n + 1], and take the H/2 point
+		// FFT's of it modulated by each residue's W^(r*n), in bit-reversed order
+		for(int r = 0; r < B; r++) {
+			double[] Z = residueSpectra[r];
+			double[] w = modulations[r];
+			for(int n = 0; n < L; n++) {
+				double xr = hop[2*n];
+				double xi = hop[2*n + 1];
+				double wr = w[2*n];
+				double wi = w[2*n + 1];
+				int i = 2*hopBitReversedIndices[n];
+				Z[i] = xr * wr - xi * wi;
+				Z[i + 1] = xr * wi + xi * wr;
+			}
+			hopAlgorithm.computeButterflies(Z);
+		}
+
+		// Unpack the real spectrum of the hop exactly like FFTEngine.computeRealFFT does, two bins
+		// at a time, and slide each bin of the running sum along as soon as it's known.
+		// Bin k of the packed spectrum is bin k / B of residue k mod B.
+		int offset = oldestHop * (N + 2);
+		double z0r = residueSpectra[0][0];
+		double z0i = residueSpectra[0][1];
+		slideBin(0, z0r + z0i, 0, offset);
+		slideBin(M, z0r - z0i, 0, offset);
+
+		for(int k = 1; k <= M/2; k++) {
+			int kk = M - k;
+			double[] Za = residueSpectra[k & residueMask];
+			int a = 2*(k >> residueShift);
+			double[] Zb = residueSpectra[kk & residueMask];
+			int b = 2*(kk >> residueShift);
+
+			double zr = Za[a];
+			double zi = Za[a + 1];
+			double cr = Zb[b];
+			double ci = -Zb[b + 1];
+
+			double er = 0.5 * (zr + cr);
+			double ei = 0.5 * (zi + ci);
+			double or = 0.5 * (zi - ci);
+			double oi = -0.5 * (zr - cr);
+
+			double wr = realTwiddles[2*k];
+			double wi = realTwiddles[2*k + 1];
+
+			double tr = wr * or - wi * oi;
+			double ti = wr * oi + wi * or;
+
+			slideBin(k, er + tr, ei + ti, offset);
+			if (kk != k) {
+				slideBin(kk, er - tr, -(ei - ti), offset);
+			}
+		}
+		oldestHop = (oldestHop + 1) % B;
+
+		// Every so often, rebuild the running sum from the stored hops to wash out rounding errors
+		if (++hopsSinceResync >= RESYNC_INTERVAL) {
+			resync();
+			hopsSinceResync = 0;
+		}
+
+		// Fill in the extra bins at each end. The spectrum of a real signal is conjugate symmetric.
+		S[2] = S[6];	S[3] = -S[7];			// Bin -1 = conj(bin 1)
+		S[0] = S[8];	S[1] = -S[9];			// Bin -2 = conj(bin 2)
+		S[2*M + 6] = S[2*M + 2];	S[2*M + 7] = -S[2*M + 3];	// Bin M + 1 = conj(bin M - 1)
+		S[2*M + 8] = S[2*M];		S[2*M + 9] = -S[2*M + 1];	// Bin M + 2 = conj(bin M - 2)
+
+		// Apply the window by convolving across neighboring bins
+		double b1 = 0.5 * a1;
+		double b2 = 0.5 * a2;
+		for(int k = 0; k <= M; k++) {
+			int s = 2*k + 4;
+			X[2*k] = a0 * S[s] - b1 * (S[s - 2] + S[s + 2]) + b2 * (S[s - 4] + S[s + 4]);
+			X[2*k + 1] = a0 * S[s + 1] - b1 * (S[s - 1] + S[s + 3]) + b2 * (S[s - 3] + S[s + 5]);
+		}
+
+	}
+
+
+	// Swap bin k of the new hop's spectrum in for the oldest hop's, and slide bin k of the running sum along
+	private void slideBin(int k, double yr, double yi, int offset) {
+		int a = 2*k;
+		int s = a + 4;
+		double sr = S[s] - hopSpectra[offset + a] + yr;
+		double si = S[s + 1] - hopSpectra[offset + a + 1] + yi;
+		hopSpectra[offset + a] = yr;
+		hopSpectra[offset + a + 1] = yi;
+
+		double wr = hopRotations[a];
+		double wi = hopRotations[a + 1];
+		S[s] = sr * wr - si * wi;
+		S[s + 1] = sr * wi + si * wr;
+	}
+
+
+	// Recompute the running sum directly from the stored hop spectra, oldest hop first,
+	// using Horner's rule: S = Y_0 + W^(kH) * (Y_1 + W^(kH) * (Y_2 + ...))
+	private void resync() {
+		for(int k = 0; k <= M; k++) {
+			int a = 2*k;
+
+			// W^(k*H) is the conjugate of the hop rotation
+			double wr = hopRotations[a];
+			double wi = -hopRotations[a + 1];
+
+			double accr = 0;
+			double acci = 0;
+			for(int j = B - 1; j >= 0; j--) {
+				int offset = ((oldestHop + j) % B) * (N + 2);
+				double tr = accr * wr - acci * wi + hopSpectra[offset + a];
+				double ti = accr * wi + acci * wr + hopSpectra[offset + a + 1];
+				accr = tr;
+				acci = ti;
+			}
+			S[a + 4] = accr;
+			S[a + 5] = acci;
+		}
+	}
+
+}
@@ -0,0 +1,28 @@
+package Signals;
+
+/**
+ * The inner loops that turn a computed FFT (interleaved re, im values) into the spectra
+ * that FeatureDetectors and the GUI actually use. There is a plain scalar implementation,
+ * and (on JDK's that have it) one that uses the Vector API. See VectorSupport.
+ * 
+ * @author Steve Levine
+ *
+ */
+public interface SpectrumKernels {
+	
+	/**
+	 * Compute |X[k]|^2 for the first numBins bins of X, into out.
+	 */
+	public void powers(double[] X, int numBins, double[] out);
+	
+	/**
+	 * Compute |X[k]| for the first numBins bins of X, into out.
+	 */
+	public void magnitudes(double[] X, int numBins, double[] out);
+	
+	/**
+	 * Compute log10(|X[k]|) for the first numBins bins of X, into out.
+	 */
+	public void logMagnitudes(double[] X, int numBins, double[] out);
+	
+}
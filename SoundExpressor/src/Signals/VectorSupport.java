@@ -0,0 +1,128 @@
+package Signals;
+
+/**
+ * Finds out whether the SIMD (jdk.incubator.vector) versions of the FFT and spectrum
+ * kernels can be used, and hands out the best available ones.
+ * 
+ * The Vector API classes live in a separate source folder (src-vector), since they
+ * can only be compiled and run on JDK 16+ with "--add-modules jdk.incubator.vector".
+ * They are loaded by name here, so if they weren't compiled, or the module isn't
+ * available at runtime, everything quietly falls back to the scalar code.
+ * 
+ * @author Steve Levine
+ *
+ */
+public class VectorSupport {
+	
+	private static final String VECTOR_KERNELS_CLASS = "Signals.VectorSpectrumKernels";
+	private static final String VECTOR_FFT_CLASS = "Signals.FFTVectorRadix2";
+	
+	// The self-test runs this many bins through each kernel: enough for a couple of full vectors on even the
+	// widest hardware (8 doubles per vector), plus a few left over for the plain loop at the end
+	private static final int SELF_TEST_BINS = 67;
+	private static final double SELF_TEST_TOLERANCE = 1e-12;
+	
+	private static boolean enabled = true;
+	private static boolean checked = false;
+	private static boolean available = false;
+	private static SpectrumKernels kernels;
+	
+	
+	/**
+	 * Allows the Vector API to be turned off (for example, from the configuration file).
+	 * Must be called before any FFT's are computed.
+	 */
+	public static synchronized void setEnabled(boolean enable) {
+		enabled = enable;
+		checked = false;
+		kernels = null;
+	}
+	
+	/**
+	 * Returns true if the Vector API versions of the kernels can be used.
+	 */
+	public static synchronized boolean isAvailable() {
+		if (!checked) {
+			checked = true;
+			available = false;
+			if (enabled) {
+				try {
+					// Make sure that the classes exist, and that the Vector API actually works here
+					SpectrumKernels vectorKernels = (SpectrumKernels) Class.forName(VECTOR_KERNELS_CLASS).getConstructor().newInstance();
+					available = selfTest(vectorKernels);
+					if (!available) {
+						System.out.println("Warning: The Vector API spectrum kernels don't match the scalar ones!");
+					}
+				} catch (Throwable t) {
+					// Not compiled in, or the jdk.incubator.vector module isn't available. That's fine!
+					available = false;
+				}
+			}
+			System.out.println("Vector API (SIMD) kernels: " + (available ? "enabled" : "not available, using scalar code"));
+		}
+		return available;
+	}
+	
+	// Check that the given kernels give the same answers as ScalarSpectrumKernels, bin for bin
+	private static boolean selfTest(SpectrumKernels vectorKernels) {
+		double[] X = new double[2 * SELF_TEST_BINS];
+		for(int i = 0; i < X.length; i++) {
+			X[i] = Math.sin(1.7 * i + 0.3) * (1 + i % 5);		// Something different in every lane (and never all zero)
+		}
+		SpectrumKernels scalarKernels = new ScalarSpectrumKernels();
+		double[] expected = new double[SELF_TEST_BINS];
+		double[] actual = new double[SELF_TEST_BINS];
+		
+		for(int kernel = 0; kernel < 3; kernel++) {
+			if (kernel == 0) {
+				scalarKernels.powers(X, SELF_TEST_BINS, expected);
+				vectorKernels.powers(X, SELF_TEST_BINS, actual);
+			} else if (kernel == 1) {
+				scalarKernels.magnitudes(X, SELF_TEST_BINS, expected);
+				vectorKernels.magnitudes(X, SELF_TEST_BINS, actual);
+			} else {
+				scalarKernels.logMagnitudes(X, SELF_TEST_BINS, expected);
+				vectorKernels.logMagnitudes(X, SELF_TEST_BINS, actual);
+			}
+			for(int k = 0; k < SELF_TEST_BINS; k++) {
+				if (!(Math.abs(actual[k] - expected[k]) <= SELF_TEST_TOLERANCE * Math.max(1.0, Math.abs(expected[k])))) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the fastest available SpectrumKernels.
+	 */
+	public static synchronized SpectrumKernels getSpectrumKernels() {
+		if (kernels == null) {
+			kernels = new ScalarSpectrumKernels();
+			if (isAvailable()) {
+				try {
+					kernels = (SpectrumKernels) Class.forName(VECTOR_KERNELS_CLASS).getConstructor().newInstance();
+				} catch (Throwable t) {
+					System.out.println("Warning: Could not load Vector API spectrum kernels!");
+				}
+			}
+		}
+		return kernels;
+	}
+	
+	/**
+	 * Create a Vector API FFT algorithm of the given size, or null if it isn't available.
+	 */
+	public static FFTAlgorithm createVectorFFT(int fftSize) {
+		if (!isAvailable()) {
+			return null;
+		}
+		try {
+			return (FFTAlgorithm) Class.forName(VECTOR_FFT_CLASS).getConstructor(int.class).newInstance(fftSize);
+		} catch (Throwable t) {
+			System.out.println("Warning: Could not load Vector API FFT!");
+			return null;
+		}
+	}
+	
+}
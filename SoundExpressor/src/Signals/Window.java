@@ -0,0 +1,83 @@
+package Signals;
+
+/**
+ * A window function, to be multiplied into a block of samples before taking its FFT.
+ * 
+ * Windows are immutable once created, so a single Window can safely be shared between
+ * any number of engines and threads. Get them from the FFTRegistry rather than creating
+ * new ones, so that each window is only ever computed once.
+ * 
+ * @author Steve Levine
+ *
+ */
+public class Window {
+	
+	public enum Type {
+		RECTANGULAR,
+		HANN,
+		HAMMING,
+		BLACKMAN
+	}
+	
+	private final Type type;
+	private final double[] coefficients;
+	
+	public Window(Type type, int size) {
+		this.type = type;
+		coefficients = new double[size];
+		
+		int N = size;
+		for(int n = 0; n < N; n++) {
+			switch(type) {
+			case RECTANGULAR:
+				coefficients[n] = 1.0;
+				break;
+			case HANN:
+				coefficients[n] = 0.5 * (1.0 - Math.cos(2*Math.PI*n / N));
+				break;
+			case HAMMING:
+				coefficients[n] = 0.54 - 0.46 * Math.cos(2*Math.PI*n / N);
+				break;
+			case BLACKMAN:
+				coefficients[n] = 0.42 - 0.5 * Math.cos(2*Math.PI*n / N) + 0.08 * Math.cos(4*Math.PI*n / N);
+				break;
+			}
+		}
+	}
+	
+	public Type getType() {
+		return type;
+	}
+	
+	public int getSize() {
+		return coefficients.length;
+	}
+	
+	public double getCoefficient(int n) {
+		return coefficients[n];
+	}
+	
+	// The coefficients themselves, for code in this package that needs to go fast. Don't modify!
+	double[] getCoefficients() {
+		return coefficients;
+	}
+	
+	/**
+	 * Multiply the window into x, in place.
+	 */
+	public void apply(double[] x) {
+		for(int n = 0; n < coefficients.length; n++) {
+			x[n] *= coefficients[n];
+		}
+	}
+	
+	/**
+	 * Multiply the window into x, storing the result in y. x is left untouched.
+	 */
+	public void apply(double[] x, double[] y) {
+		for(int n = 0; n < coefficients.length; n++) {
+			y[n] = x[n] * coefficients[n];
+		}
+	}
+	
+}
@@ -0,0 +1,114 @@
+package SoundEngine;
+
+/**
+ * Keeps track of when each frame of an audio stream goes in or out of the sound card, in
+ * System.nanoTime() terms, by following the sound card's own clock.
+ *
+ * Every so often, tell it where the sound card is (the line's getLongFramePosition()) and what
+ * time it is. It fits a line through these observations with a delay-locked loop: each one
+ * nudges the time offset a little, and the measured sample rate a lot less, so jitter in when
+ * the observations are taken is smoothed out, but slow drift between the sound card's crystal
+ * and the computer's clock (which adds up to whole seconds over a long party) is tracked.
+ * If the sound card's position jumps (i.e., after an overrun, or the line being restarted),
+ * it just starts over from the newest observation.
+ *
+ * Thread safe - one thread can update it while others look up times.
+ *
+ * @author Steve Levine
+ *
+ */
+public class AudioClock {
+
+	// How strongly each observation corrects the offset and the rate. The rate gain is about
+	// OFFSET_GAIN^2 / 2, which keeps the loop from overshooting.
+	private static final double OFFSET_GAIN = 0.02;
+	private static final double RATE_GAIN = 0.0002;
+
+	// Never believe the sound card is off from its nominal rate by more than this
+	private static final double MAX_RATE_ERROR = 0.01;
+
+	// An observation this far off (in nanoseconds) means something jumped, so start over
+	private static final long RESYNC_THRESHOLD = 50000000L;		// 50 ms
+
+	private final double nominalNanosPerFrame;
+
+	// The current fit: frame referencePosition happens at time referenceTime, with nanosPerFrame between frames
+	private boolean started = false;
+	private long referencePosition;
+	private double referenceTime;
+	private double nanosPerFrame;
+	private long numResyncs = 0;
+
+
+	public AudioClock(double sampleRate) {
+		nominalNanosPerFrame = 1000000000.0 / sampleRate;
+		nanosPerFrame = nominalNanosPerFrame;
+	}
+
+
+	/**
+	 * Tell the clock that the sound card was at the given frame position at the given time
+	 * (from System.nanoTime()).
+	 */
+	public synchronized void update(long framePosition, long nanoTime) {
+		if (!started) {
+			resync(framePosition, nanoTime);
+			started = true;
+			return;
+		}
+
+		long frames = framePosition - referencePosition;
+		if (frames == 0) {
+			return;		// Nothing new to learn
+		}
+
+		double predicted = referenceTime + frames * nanosPerFrame;
+		double error = nanoTime - predicted;
+		if (frames < 0 || Math.abs(error) > RESYNC_THRESHOLD) {
+			resync(framePosition, nanoTime);
+			numResyncs++;
+			return;
+		}
+
+		// Move the reference up to this observation, and correct the offset and rate a bit
+		referencePosition = framePosition;
+		referenceTime = predicted + OFFSET_GAIN * error;
+		nanosPerFrame += RATE_GAIN * error / frames;
+		nanosPerFrame = Math.max(nominalNanosPerFrame * (1 - MAX_RATE_ERROR), Math.min(nominalNanosPerFrame * (1 + MAX_RATE_ERROR), nanosPerFrame));
+	}
+
+	private void resync(long framePosition, long nanoTime) {
+		referencePosition = framePosition;
+		referenceTime = nanoTime;
+	}
+
+
+	/**
+	 * Whether the clock has had any observations yet. Until then, getTime() is meaningless.
+	 */
+	public synchronized boolean isStarted() {
+		return started;
+	}
+
+	/**
+	 * When the given frame went (or will go) through the sound card, in System.nanoTime() terms.
+	 */
+	public synchronized long getTime(long framePosition) {
+		return (long) (referenceTime + (framePosition - referencePosition) * nanosPerFrame);
+	}
+
+	/**
+	 * The sound card's measured sample rate, divided by its nominal sample rate.
+	 */
+	public synchronized double getRateRatio() {
+		return nominalNanosPerFrame / nanosPerFrame;
+	}
+
+	/**
+	 * How many times the clock had to start over because the sound card's position jumped.
+	 */
+	public synchronized long getNumResyncs() {
+		return numResyncs;
+	}
+
+}
@@ -0,0 +1,308 @@
+package SoundEngine;
+
+import java.awt.Color;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import Common.ColorOutput;
+import Common.ColorOutput.OverallOutputCompression;
+import Common.FeatureList;
+
+/**
+ * The layout of a light cue file: every frame of the lights for a whole song (or a whole set),
+ * worked out ahead of time by OfflineRenderer so that it can be looked over and played back
+ * later.
+ *
+ * A cue file is a header followed by one fixed-size record per frame, so that frame i always
+ * starts at getHeaderSize() + i * getRecordSize(). All numbers are big-endian.
+ *
+ * The header:
+ *   int      MAGIC ("LDJC")
+ *   int      VERSION
+ *   int      The size of the header, in bytes (where the first record starts)
+ *   int      The size of each record, in bytes
+ *   int      The sample rate of the audio
+ *   int      The FFT size, and then the overlap, that the audio was analyzed with
+ *   long     How far apart the frames are, in nanoseconds
+ *   int      The number of front RGB lights, rear RGB lights, white lights and UV lights
+ *   int      The number of features, followed by each feature's name (as by DataOutput.writeUTF)
+ *
+ * Each record:
+ *   long     When the frame starts, in nanoseconds from the start of the audio
+ *   byte     The frame's overall output compression (its ColorOutput.OverallOutputCompression,
+ *            which says if it's a strobe, emergency lighting, etc.)
+ *   byte[3]  The red, green and blue of each front RGB light, then of each rear one
+ *   byte     The brightness of each white light, then of each UV light (0 to 255)
+ *   float    The value of each feature (NaN if it wasn't there, or isn't a number)
+ *
+ * @author Steve Levine
+ *
+ */
+public class CueFile {
+
+	public static final int MAGIC = 0x4C444A43;		// "LDJC"
+	public static final int VERSION = 1;
+
+	// What's in the file
+	private final int sampleRate;
+	private final int fftSize;
+	private final int overlap;
+	private final long frameWidth;
+	private final int numFrontLights;
+	private final int numRearLights;
+	private final int numWhiteLights;
+	private final int numUVLights;
+	private final String[] featureNames;
+
+	// Where everything is
+	private final byte[] header;
+	private final int recordSize;
+
+
+	/**
+	 * Describe a cue file of audio analyzed as given, for the lights as currently configured
+	 * (see ColorOutput), with the given features in each frame.
+	 */
+	public CueFile(int sampleRate, int fftSize, int overlap, long frameWidth, String[] featureNames) {
+		this.sampleRate = sampleRate;
+		this.fftSize = fftSize;
+		this.overlap = overlap;
+		this.frameWidth = frameWidth;
+		this.numFrontLights = ColorOutput.NUM_RGB_LIGHTS_FRONT;
+		this.numRearLights = ColorOutput.NUM_RGB_LIGHTS_REAR;
+		this.numWhiteLights = ColorOutput.NUM_STROBE_LIGHTS;
+		this.numUVLights = ColorOutput.NUM_UV_LIGHTS;
+		this.featureNames = featureNames.clone();
+
+		recordSize = 8 + 1 + 3 * (numFrontLights + numRearLights) + numWhiteLights + numUVLights + 4 * featureNames.length;
+		header = createHeader();
+	}
+
+	/**
+	 * Read the description of a cue file from its contents (i.e. memory-mapped), which start at
+	 * position 0 of the buffer. Throws an error if it isn't a cue file this version can read.
+	 */
+	public CueFile(ByteBuffer file) {
+		if (file.limit() < 56 || file.getInt(0) != MAGIC) {
+			throw new RuntimeException("Error: Not a LightDJ cue file!");
+		} else if (file.getInt(4) != VERSION) {
+			throw new RuntimeException("Error: Unknown cue file version " + file.getInt(4) + "!");
+		}
+		int headerSize = file.getInt(8);
+		if (headerSize < 56 || headerSize > file.limit()) {
+			throw new RuntimeException("Error: The cue file's header is cut off!");
+		}
+		header = new byte[headerSize];
+		for(int i = 0; i < headerSize; i++) {
+			header[i] = file.get(i);
+		}
+
+		try {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(header, 12, headerSize - 12));
+			recordSize = in.readInt();
+			sampleRate = in.readInt();
+			fftSize = in.readInt();
+			overlap = in.readInt();
+			frameWidth = in.readLong();
+			numFrontLights = in.readInt();
+			numRearLights = in.readInt();
+			numWhiteLights = in.readInt();
+			numUVLights = in.readInt();
+			featureNames = new String[in.readInt()];
+			for(int i = 0; i < featureNames.length; i++) {
+				featureNames[i] = in.readUTF();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Error: The cue file's header is cut off!", e);
+		}
+		if (recordSize != 8 + 1 + 3 * (numFrontLights + numRearLights) + numWhiteLights + numUVLights + 4 * featureNames.length) {
+			throw new RuntimeException("Error: The cue file's header doesn't add up!");
+		}
+	}
+
+	private byte[] createHeader() {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(0);		// The header size - filled in below
+			out.writeInt(recordSize);
+			out.writeInt(sampleRate);
+			out.writeInt(fftSize);
+			out.writeInt(overlap);
+			out.writeLong(frameWidth);
+			out.writeInt(numFrontLights);
+			out.writeInt(numRearLights);
+			out.writeInt(numWhiteLights);
+			out.writeInt(numUVLights);
+			out.writeInt(featureNames.length);
+			for(String name : featureNames) {
+				out.writeUTF(name);
+			}
+			byte[] h = bytes.toByteArray();
+			ByteBuffer.wrap(h).putInt(8, h.length);
+			return h;
+		} catch (IOException e) {
+			throw new RuntimeException("Error: Could not create a cue file header!", e);
+		}
+	}
+
+
+	/**
+	 * Write one frame's record into out, at its current position (which is moved along past it).
+	 */
+	public void encodeFrame(long timestamp, ColorOutput colorOutput, FeatureList featureList, ByteBuffer out) {
+		out.putLong(timestamp);
+		out.put((byte) colorOutput.overallOutputCompression.ordinal());
+		putColors(colorOutput.rgbLightsFront, numFrontLights, out);
+		putColors(colorOutput.rgbLightsRear, numRearLights, out);
+		putLevels(colorOutput.whiteLights, numWhiteLights, out);
+		putLevels(colorOutput.uvLights, numUVLights, out);
+		for(String name : featureNames) {
+			Object value = (featureList.containsFeature(name) ? featureList.getFeature(name) : null);
+			out.putFloat(value instanceof Number ? ((Number) value).floatValue() : Float.NaN);
+		}
+	}
+
+	// Missing lights are written as off
+	private static void putColors(Color[] colors, int n, ByteBuffer out) {
+		for(int i = 0; i < n; i++) {
+			Color c = (i < colors.length && colors[i] != null ? colors[i] : Color.BLACK);
+			out.put((byte) c.getRed());
+			out.put((byte) c.getGreen());
+			out.put((byte) c.getBlue());
+		}
+	}
+
+	private static void putLevels(double[] levels, int n, ByteBuffer out) {
+		for(int i = 0; i < n; i++) {
+			double level = (i < levels.length ? levels[i] : 0.0);
+			out.put((byte) Math.round(255 * Math.max(0.0, Math.min(1.0, level))));
+		}
+	}
+
+
+	/**
+	 * How many whole frames there are in a cue file of the given size.
+	 */
+	public int getNumFrames(long fileSize) {
+		return (int) Math.max(0, (fileSize - header.length) / recordSize);
+	}
+
+	/**
+	 * When the given frame starts, in nanoseconds from the start of the audio.
+	 */
+	public long getTimestamp(ByteBuffer file, int frame) {
+		return file.getLong(getRecordPosition(frame));
+	}
+
+	/**
+	 * Find the frame showing at the given time (in nanoseconds from the start of the audio):
+	 * the last one that starts at or before then, or the first one if none do yet.
+	 */
+	public int findFrame(ByteBuffer file, int numFrames, long timestamp) {
+		int low = 0;
+		int high = numFrames - 1;
+		while(low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (getTimestamp(file, mid) <= timestamp) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Read the lights back out of the given frame. Only uses absolute reads, so any number of
+	 * threads may read from the same buffer. If the lights are configured differently now than
+	 * when the file was made, the ones that don't match up are left off.
+	 */
+	public ColorOutput decodeFrame(ByteBuffer file, int frame) {
+		ColorOutput colorOutput = new ColorOutput();
+		int position = getRecordPosition(frame) + 8;
+		int compression = file.get(position++);
+		OverallOutputCompression[] compressions = OverallOutputCompression.values();
+		if (compression >= 0 && compression < compressions.length) {
+			colorOutput.overallOutputCompression = compressions[compression];
+		}
+		position = getColors(file, position, numFrontLights, colorOutput.rgbLightsFront);
+		position = getColors(file, position, numRearLights, colorOutput.rgbLightsRear);
+		position = getLevels(file, position, numWhiteLights, colorOutput.whiteLights);
+		getLevels(file, position, numUVLights, colorOutput.uvLights);
+		return colorOutput;
+	}
+
+	private static int getColors(ByteBuffer file, int position, int n, Color[] colors) {
+		for(int i = 0; i < n; i++, position += 3) {
+			if (i < colors.length) {
+				colors[i] = new Color(file.get(position) & 0xFF, file.get(position + 1) & 0xFF, file.get(position + 2) & 0xFF);
+			}
+		}
+		return position;
+	}
+
+	private static int getLevels(ByteBuffer file, int position, int n, double[] levels) {
+		for(int i = 0; i < n; i++, position++) {
+			if (i < levels.length) {
+				levels[i] = (file.get(position) & 0xFF) / 255.0;
+			}
+		}
+		return position;
+	}
+
+	private int getRecordPosition(int frame) {
+		return header.length + frame * recordSize;
+	}
+
+	/**
+	 * Whether the lights are configured the same now (see ColorOutput) as when the file was made.
+	 */
+	public boolean matchesLights() {
+		return numFrontLights == ColorOutput.NUM_RGB_LIGHTS_FRONT && numRearLights == ColorOutput.NUM_RGB_LIGHTS_REAR
+				&& numWhiteLights == ColorOutput.NUM_STROBE_LIGHTS && numUVLights == ColorOutput.NUM_UV_LIGHTS;
+	}
+
+
+	public byte[] getHeader() {
+		return header.clone();
+	}
+
+	public int getHeaderSize() {
+		return header.length;
+	}
+
+	public int getRecordSize() {
+		return recordSize;
+	}
+
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getFFTSize() {
+		return fftSize;
+	}
+
+	public int getOverlap() {
+		return overlap;
+	}
+
+	/**
+	 * How far apart the frames are, in nanoseconds.
+	 */
+	public long getFrameWidth() {
+		return frameWidth;
+	}
+
+	public String[] getFeatureNames() {
+		return featureNames.clone();
+	}
+
+}
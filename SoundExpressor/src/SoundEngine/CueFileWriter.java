@@ -0,0 +1,188 @@
+package SoundEngine;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import Common.ColorOutput;
+import Common.FeatureList;
+
+/**
+ * Writes frames of the lights out to a cue file (see CueFile), on its own thread, so that the
+ * thread computing them never has to wait for the disk (unless it gets a long way ahead).
+ *
+ * The features saved are the numeric ones in the first frame, and the header is written once
+ * that frame comes in. Call close() when done, to finish writing everything out.
+ *
+ * Only one thread may call addFrame() and close().
+ *
+ * @author Steve Levine
+ *
+ */
+public class CueFileWriter implements Runnable {
+
+	private static final int QUEUE_SIZE = 1024;				// Frames waiting to be written
+	private static final int FILE_BUFFER_SIZE = 1 << 16;
+
+	private final String filename;
+	private final int sampleRate;
+	private final int fftSize;
+	private final int overlap;
+	private final long frameWidth;
+	private final OutputStream out;
+	private final BlockingQueue<CueFrame> queue = new ArrayBlockingQueue<CueFrame>(QUEUE_SIZE);
+	private final Thread thread;
+	private volatile IOException error = null;
+	private volatile long framesWritten = 0;
+	private boolean closed = false;
+
+	// Put on the queue after the last frame
+	private static final CueFrame END = new CueFrame(0, null, null);
+
+
+	/**
+	 * Create (or replace) the given cue file, for audio analyzed as given, and start the thread
+	 * that writes to it.
+	 */
+	public CueFileWriter(String filename, int sampleRate, int fftSize, int overlap, long frameWidth) {
+		this.filename = filename;
+		this.sampleRate = sampleRate;
+		this.fftSize = fftSize;
+		this.overlap = overlap;
+		this.frameWidth = frameWidth;
+		try {
+			out = new BufferedOutputStream(new FileOutputStream(filename), FILE_BUFFER_SIZE);
+		} catch (IOException e) {
+			throw new RuntimeException("Error: Could not create the cue file " + filename + "!", e);
+		}
+
+		thread = new Thread(this, "Cue file writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	/**
+	 * Queue up a frame to be written: its start time (in nanoseconds from the start of the
+	 * audio), the final lights, and the features they were computed from. Neither may be changed
+	 * afterwards. Waits if the writer is too far behind.
+	 */
+	public void addFrame(long timestamp, ColorOutput colorOutput, FeatureList featureList) {
+		checkForError();
+		try {
+			queue.put(new CueFrame(timestamp, colorOutput, featureList));
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Error: Interrupted while writing to the cue file " + filename + "!");
+		}
+	}
+
+	/**
+	 * Write out everything that's been added, and close the file.
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			queue.put(END);
+			thread.join();
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Error: Interrupted while finishing the cue file " + filename + "!");
+		}
+		checkForError();
+	}
+
+	/**
+	 * How many frames have been written to the file so far.
+	 */
+	public long getFramesWritten() {
+		return framesWritten;
+	}
+
+	private void checkForError() {
+		if (error != null) {
+			throw new RuntimeException("Error: Could not write the cue file " + filename + "!", error);
+		}
+	}
+
+
+	@Override
+	public void run() {
+		CueFile cueFile = null;
+		ByteBuffer record = null;
+
+		try {
+			while(true) {
+				CueFrame frame = queue.take();
+				if (frame == END) {
+					break;
+				}
+
+				// Work out the layout from the first frame
+				if (cueFile == null) {
+					cueFile = new CueFile(sampleRate, fftSize, overlap, frameWidth, getNumericFeatureNames(frame.featureList));
+					record = ByteBuffer.allocate(cueFile.getRecordSize());
+					out.write(cueFile.getHeader());
+				}
+
+				record.clear();
+				cueFile.encodeFrame(frame.timestamp, frame.colorOutput, frame.featureList, record);
+				out.write(record.array(), 0, record.position());
+				framesWritten++;
+			}
+
+		} catch (IOException e) {
+			error = e;
+			queue.clear();		// So that addFrame() notices, rather than waiting forever
+		} catch (InterruptedException e) {
+			// Stopped
+		} finally {
+			try {
+				out.close();
+			} catch (IOException e) {
+				if (error == null) {
+					error = e;
+				}
+			}
+			// Don't leave a cue file that's been cut off partway through
+			if (error != null) {
+				new File(filename).delete();
+			}
+		}
+	}
+
+	// The names of the features that are numbers, in alphabetical order
+	private static String[] getNumericFeatureNames(FeatureList featureList) {
+		List<String> names = new ArrayList<String>();
+		for(String name : featureList.getFeatureNames()) {
+			if (featureList.getFeature(name) instanceof Number) {
+				names.add(name);
+			}
+		}
+		Collections.sort(names);
+		return names.toArray(new String[names.size()]);
+	}
+
+}
+
+
+class CueFrame {
+	public final long timestamp;
+	public final ColorOutput colorOutput;
+	public final FeatureList featureList;
+
+	public CueFrame(long timestamp, ColorOutput colorOutput, FeatureList featureList) {
+		this.timestamp = timestamp;
+		this.colorOutput = colorOutput;
+		this.featureList = featureList;
+	}
+}
@@ -0,0 +1,315 @@
+package SoundEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.SourceDataLine;
+
+import Common.ColorOutput;
+import PartyLightsController.PartyLightsController8;
+
+/**
+ * Plays back a show worked out ahead of time by OfflineRenderer: plays the audio file through
+ * the speakers, and sends each frame of the lights from its cue file out to the lights just as
+ * that part of the audio comes out of them. Nothing is analyzed, so this takes almost no CPU.
+ *
+ * The cue file is memory-mapped, and frames are read straight out of it, so the operating
+ * system only loads in the part being played, and jumping anywhere (see seek()) is instant.
+ *
+ * Frames are timed the same way VisualizationEngine times them live: the audio is followed by
+ * an AudioClock, which says when each frame of it comes out of the sound card, and each cue
+ * (timestamped by its position in the audio) is sent when that position is played. If the
+ * sound card can't be opened (or there's no audio file), the cues are timed by the computer's
+ * clock instead, as if the audio were playing somewhere else.
+ *
+ * @author Steve Levine
+ *
+ */
+public class CuePlayer {
+
+	// The audio is written to the sound card this many frames at a time, and the clock updated after each
+	private static final int AUDIO_CHUNK_FRAMES = 1024;
+	private static final int SOUNDCARD_BUFFER_SIZE = 1024*64;
+	private static final long CLOCK_UPDATE_INTERVAL = 10000000L;		// 10 ms, when going by the computer's clock
+	private static final long MAX_WAIT = 100000000L;		// 100 ms - check back at least this often, in case the clock changes its mind
+
+	// The cue file
+	private final String cueFilename;
+	private final CueFile cueFile;
+	private final MappedByteBuffer cues;
+	private final int numFrames;
+
+	// Where the lights go
+	private PartyLightsController8 lights;
+
+	// The clock that the audio comes out by. File frame p is played at the clock's frame p + lineOffset.
+	private final AudioClock clock;
+	private volatile long lineOffset = 0;
+
+	// A jump asked for by seek() (in frames of audio, or -1 if none), and how many jumps have been made so far.
+	// The cue thread starts over from seekPosition whenever seekGeneration changes.
+	private final AtomicLong pendingSeek = new AtomicLong(-1);
+	private volatile long seekPosition = 0;
+	private volatile int seekGeneration = 0;
+
+	private volatile boolean playing = false;
+	private volatile Thread cueThread = null;
+
+	// Statistics
+	private volatile long framesSent = 0;
+	private volatile long framesSkipped = 0;
+
+
+	/**
+	 * Open up the given cue file, and connect to the lights.
+	 */
+	public CuePlayer(String cueFilename) {
+		this.cueFilename = cueFilename;
+		try {
+			RandomAccessFile file = new RandomAccessFile(cueFilename, "r");
+			FileChannel channel = file.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				file.close();
+				throw new RuntimeException("Error: The cue file " + cueFilename + " is too big to play (over 2 GB)!");
+			}
+			cues = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			file.close();		// The mapping stays valid
+		} catch (IOException e) {
+			throw new RuntimeException("Error: Could not open the cue file " + cueFilename + "!", e);
+		}
+		cueFile = new CueFile(cues);
+		numFrames = cueFile.getNumFrames(cues.limit());
+		clock = new AudioClock(cueFile.getSampleRate());
+
+		if (numFrames == 0) {
+			throw new RuntimeException("Error: The cue file " + cueFilename + " doesn't have any frames in it!");
+		} else if (!cueFile.matchesLights()) {
+			System.out.println("Warning: The cue file " + cueFilename + " was made for a different number of lights than are set up now. The extra lights will be left off.");
+		}
+
+		try {
+			lights = new PartyLightsController8();
+		} catch (Throwable o) {
+			System.out.println("WARNING: Couldn't connect to LEDs!");
+		}
+
+		double seconds = cueFile.getTimestamp(cues, numFrames - 1) / 1000000000.0;
+		System.out.println(String.format("Loaded %d cues (%d:%02d) from %s.", numFrames, (int) seconds / 60, (int) seconds % 60, cueFilename));
+	}
+
+
+	/**
+	 * Play the given audio file (the one the cue file was rendered from) along with the cues, and
+	 * return once it's done. If audioFilename is null, just run through the cues by the
+	 * computer's clock.
+	 */
+	public void play(String audioFilename) {
+		AudioInputStream audio = null;
+		SourceDataLine line = null;
+		if (audioFilename != null) {
+			audio = openAudio(audioFilename);
+			line = openLine(audio.getFormat());
+		}
+
+		playing = true;
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				runCues();
+			}
+		}, "Cue playback");
+		thread.setDaemon(true);
+		cueThread = thread;
+		thread.start();
+
+		try {
+			if (line != null) {
+				playAudio(audioFilename, audio, line);
+			} else {
+				followComputerClock();
+			}
+		} finally {
+			playing = false;
+			LockSupport.unpark(thread);
+			if (line != null) {
+				line.close();
+			}
+		}
+		System.out.println("Playback finished! " + getReport());
+	}
+
+	/**
+	 * Jump to the given time (in seconds from the start of the audio). May be called from any
+	 * thread.
+	 */
+	public void seek(double seconds) {
+		pendingSeek.set(Math.max(0, (long) (seconds * cueFile.getSampleRate())));
+	}
+
+	/**
+	 * How long the show is, in seconds.
+	 */
+	public double getLength() {
+		return cueFile.getTimestamp(cues, numFrames - 1) / 1000000000.0;
+	}
+
+	public String getReport() {
+		return String.format("Cue playback: %d frames sent, %d skipped for running late, %d clock resyncs", framesSent, framesSkipped, clock.getNumResyncs());
+	}
+
+
+	// Play the audio through the sound card, keeping the clock up to date as it goes
+	private void playAudio(String audioFilename, AudioInputStream audio, SourceDataLine line) {
+		int frameSize = audio.getFormat().getFrameSize();
+		byte[] chunk = new byte[AUDIO_CHUNK_FRAMES * frameSize];
+		long filePosition = 0;
+		line.start();
+		try {
+			while(true) {
+				// Jump somewhere else? (Going backwards means starting over from the top of the file.)
+				long target = pendingSeek.getAndSet(-1);
+				if (target >= 0) {
+					if (target < filePosition) {
+						audio.close();
+						audio = openAudio(audioFilename);
+						filePosition = 0;
+					}
+					filePosition += audio.skip((target - filePosition) * frameSize) / frameSize;
+					line.flush();
+					jumpedTo(filePosition, line.getLongFramePosition());
+				}
+
+				int length = audio.read(chunk, 0, chunk.length);
+				if (length < 0) {
+					break;
+				}
+				line.write(chunk, 0, length);
+				filePosition += length / frameSize;
+				clock.update(line.getLongFramePosition(), System.nanoTime());
+			}
+			line.drain();
+			audio.close();
+		} catch (IOException e) {
+			throw new RuntimeException("Error: Could not finish reading the audio file " + audioFilename + "!", e);
+		}
+	}
+
+	// No audio: pretend the sound card is playing along in real time, until the cues run out
+	private void followComputerClock() {
+		long sampleRate = cueFile.getSampleRate();
+		long end = cueFile.getTimestamp(cues, numFrames - 1) * sampleRate / 1000000000L + 1;
+		long startTime = System.nanoTime();
+		long filePosition = 0;
+		while(filePosition < end) {
+			long target = pendingSeek.getAndSet(-1);
+			if (target >= 0) {
+				long now = System.nanoTime();
+				startTime = now - target * 1000000000L / sampleRate;
+				clock.update(target, now);
+				jumpedTo(target, target);
+			}
+
+			LockSupport.parkNanos(CLOCK_UPDATE_INTERVAL);
+			long now = System.nanoTime();
+			filePosition = (now - startTime) * sampleRate / 1000000000L;
+			clock.update(filePosition, now);
+		}
+	}
+
+	// Let the cue thread know that the audio now continues from the given file position, played at the given clock position
+	private void jumpedTo(long filePosition, long linePosition) {
+		lineOffset = linePosition - filePosition;
+		seekPosition = filePosition;
+		seekGeneration++;		// After the others, so the cue thread sees them once it sees this
+		LockSupport.unpark(cueThread);
+	}
+
+
+	// The cue thread: wait for each frame's time to come, and send it to the lights
+	private void runCues() {
+		int frame = 0;
+		int generation = -1;
+		long sampleRate = cueFile.getSampleRate();
+
+		while(playing) {
+			// Start over if the audio jumped
+			if (generation != seekGeneration) {
+				generation = seekGeneration;
+				frame = cueFile.findFrame(cues, numFrames, seekPosition * 1000000000L / sampleRate);
+			}
+
+			if (frame >= numFrames || !clock.isStarted()) {
+				LockSupport.parkNanos(CLOCK_UPDATE_INTERVAL);	// Nothing to do until the audio starts (or jumps back)
+				continue;
+			}
+
+			// When will this frame be played?
+			long now = System.nanoTime();
+			long due = getDueTime(frame, sampleRate);
+			if (due > now) {
+				LockSupport.parkNanos(Math.min(due - now, MAX_WAIT));		// (Or less, if something jumps)
+				continue;
+			}
+
+			// If the next one is due too, we're running behind - skip ahead
+			if (frame + 1 < numFrames && getDueTime(frame + 1, sampleRate) <= now) {
+				framesSkipped++;
+				frame++;
+				continue;
+			}
+
+			sendFrame(frame, cueFile.decodeFrame(cues, frame));
+			framesSent++;
+			frame++;
+		}
+	}
+
+	// When the given frame should be sent, in System.nanoTime() terms
+	private long getDueTime(int frame, long sampleRate) {
+		long filePosition = cueFile.getTimestamp(cues, frame) * sampleRate / 1000000000L;
+		return clock.getTime(filePosition + lineOffset);
+	}
+
+	/**
+	 * Send a frame to the lights. (Called by the cue thread.)
+	 */
+	protected void sendFrame(int frame, ColorOutput colorOutput) {
+		if (lights != null) {
+			lights.visualize(colorOutput);
+		}
+	}
+
+
+	private AudioInputStream openAudio(String audioFilename) {
+		AudioInputStream audio;
+		try {
+			audio = AudioSystem.getAudioInputStream(new File(audioFilename));
+		} catch (Exception e) {
+			throw new RuntimeException("Error: Could not open the audio file " + audioFilename + "!", e);
+		}
+		if ((int) audio.getFormat().getSampleRate() != cueFile.getSampleRate()) {
+			throw new RuntimeException("Error: The audio file " + audioFilename + " is at " + (int) audio.getFormat().getSampleRate() + " Hz, but the cue file " + cueFilename + " was made from audio at " + cueFile.getSampleRate() + " Hz!");
+		}
+		return audio;
+	}
+
+	// Returns null (with a warning) if the sound card can't be opened
+	private SourceDataLine openLine(AudioFormat format) {
+		try {
+			SourceDataLine line = AudioSystem.getSourceDataLine(format);
+			line.open(format, SOUNDCARD_BUFFER_SIZE);
+			return line;
+		} catch (Exception e) {
+			System.out.println("Warning: Could not open the sound card, so the cues will be timed by the computer's clock instead.");
+			return null;
+		}
+	}
+
+}
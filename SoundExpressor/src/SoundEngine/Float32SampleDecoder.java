@@ -0,0 +1,35 @@
+package SoundEngine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Decodes 32 bit floating point samples, of either byte order. These are already scaled
+ * to between -1 and 1 (though loud audio may go a bit past that).
+ * 
+ * The bytes are read through a FloatBuffer view in the right byte order, so they're never copied.
+ * 
+ * @author Steve Levine
+ *
+ */
+public class Float32SampleDecoder implements SampleDecoder {
+	
+	private final ByteOrder order;
+	
+	public Float32SampleDecoder(ByteOrder order) {
+		this.order = order;
+	}
+	
+	public int getBytesPerSample() {
+		return 4;
+	}
+	
+	public void decode(byte[] data, int offset, int numSamples, double[] out) {
+		FloatBuffer in = ByteBuffer.wrap(data, offset, 4*numSamples).order(order).asFloatBuffer();
+		for(int i = 0; i < numSamples; i++) {
+			out[i] = in.get(i);
+		}
+	}
+	
+}
@@ -0,0 +1,36 @@
+package SoundEngine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Decodes signed 16 bit PCM samples (CD quality), of either byte order.
+ * 
+ * The bytes are read through a ShortBuffer view in the right byte order, so they're never copied.
+ * 
+ * @author Steve Levine
+ *
+ */
+public class Int16SampleDecoder implements SampleDecoder {
+	
+	private static final double SCALE = 1.0 / 32768.0;
+	
+	private final ByteOrder order;
+	
+	public Int16SampleDecoder(ByteOrder order) {
+		this.order = order;
+	}
+	
+	public int getBytesPerSample() {
+		return 2;
+	}
+	
+	public void decode(byte[] data, int offset, int numSamples, double[] out) {
+		ShortBuffer in = ByteBuffer.wrap(data, offset, 2*numSamples).order(order).asShortBuffer();
+		for(int i = 0; i < numSamples; i++) {
+			out[i] = in.get(i) * SCALE;
+		}
+	}
+	
+}
@@ -0,0 +1,49 @@
+package SoundEngine;
+
+/**
+ * Decodes signed 24 bit PCM samples, packed into 3 bytes each, of either byte order.
+ * 
+ * There's no 3 byte buffer view, so the bytes are put together by hand. Each byte order has
+ * its own loop, picked once per block.
+ * 
+ * @author Steve Levine
+ *
+ */
+public class Int24SampleDecoder implements SampleDecoder {
+	
+	private static final double SCALE = 1.0 / 8388608.0;
+	
+	private final boolean bigEndian;
+	
+	public Int24SampleDecoder(boolean bigEndian) {
+		this.bigEndian = bigEndian;
+	}
+	
+	public int getBytesPerSample() {
+		return 3;
+	}
+	
+	public void decode(byte[] data, int offset, int numSamples, double[] out) {
+		if (bigEndian) {
+			decodeBigEndian(data, offset, numSamples, out);
+		} else {
+			decodeLittleEndian(data, offset, numSamples, out);
+		}
+	}
+	
+	// The most significant byte is the only one that keeps its sign
+	private static void decodeLittleEndian(byte[] data, int offset, int numSamples, double[] out) {
+		for(int i = 0, p = offset; i < numSamples; i++, p += 3) {
+			int sample = (data[p + 2] << 16) | ((data[p + 1] & 0xFF) << 8) | (data[p] & 0xFF);
+			out[i] = sample * SCALE;
+		}
+	}
+	
+	private static void decodeBigEndian(byte[] data, int offset, int numSamples, double[] out) {
+		for(int i = 0, p = offset; i < numSamples; i++, p += 3) {
+			int sample = (data[p] << 16) | ((data[p + 1] & 0xFF) << 8) | (data[p + 2] & 0xFF);
+			out[i] = sample * SCALE;
+		}
+	}
+	
+}
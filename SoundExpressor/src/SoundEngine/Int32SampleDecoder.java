@@ -0,0 +1,36 @@
+package SoundEngine;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Decodes signed 32 bit PCM samples, of either byte order.
+ * 
+ * The bytes are read through an IntBuffer view in the right byte order, so they're never copied.
+ * 
+ * @author Steve Levine
+ *
+ */
+public class Int32SampleDecoder implements SampleDecoder {
+	
+	private static final double SCALE = 1.0 / 2147483648.0;
+	
+	private final ByteOrder order;
+	
+	public Int32SampleDecoder(ByteOrder order) {
+		this.order = order;
+	}
+	
+	public int getBytesPerSample() {
+		return 4;
+	}
+	
+	public void decode(byte[] data, int offset, int numSamples, double[] out) {
+		IntBuffer in = ByteBuffer.wrap(data, offset, 4*numSamples).order(order).asIntBuffer();
+		for(int i = 0; i < numSamples; i++) {
+			out[i] = in.get(i) * SCALE;
+		}
+	}
+	
+}
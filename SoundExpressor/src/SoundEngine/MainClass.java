@@ -1,12 +1,16 @@
 package SoundEngine;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
 
 import javax.sound.sampled.*;
 
 import Common.ColorOutput;
 import LightDJGUI.ConfigFileParser;
+import Signals.FFTPlanner;
+import Signals.VectorSupport;
 import Utils.TimerTicToc;
 
 /**
@@ -23,8 +27,13 @@ public class MainClass {
 	//private static String soundFilename = "/home/steve/Desktop/whitenoise.wav";
 	protected static int AUDIO_READ_BUFFER_SIZE;
 	protected static final int SAMPLE_RATE = 44100;
+	protected static int CAPTURE_SAMPLE_RATE = SAMPLE_RATE;
+	protected static String CAPTURE_SAMPLE_FORMAT = "PCM16";
 	protected static boolean USE_CAPTURED_AUDIO = true;
 	protected static boolean AUDIO_PASS_THRU = false;
+	protected static String RENDER_CUE_FILE = null;		// If set, render soundFilename offline into this cue file instead of running live
+	protected static String PLAY_CUE_FILE = null;		// If set, play soundFilename along with this cue file instead of running live
+	protected static int FILE_LOOKAHEAD_MS = 100;		// When playing a file, analyze it this far ahead of the speakers (0 for no lookahead)
 	
 	// The following parameters shouldn't generally be used. They were used if INSTANT_PLAY was
 	// set to false in VisualiationEngine. It was an attempt to better synchronize audio and video,
@@ -42,7 +51,14 @@ public class MainClass {
 		// Load data from the configuration file
 		loadConfigurationFile();
 
-		if (USE_CAPTURED_AUDIO) {
+		if (RENDER_CUE_FILE != null) {
+			OfflineRenderer.render(soundFilename, RENDER_CUE_FILE);
+			
+		} else if (PLAY_CUE_FILE != null) {
+			System.out.println("Playing audio file " + soundFilename + " with the cue file " + PLAY_CUE_FILE);
+			runFromCueFile();
+			
+		} else if (USE_CAPTURED_AUDIO) {
 			System.out.println("Using captured audio...");
 			runWithCapturedAudio();
 			
@@ -82,6 +98,37 @@ public class MainClass {
 		
 		
 		// Process audio/visual settings
+		USE_CAPTURED_AUDIO = ConfigFileParser.getSettingOrDefault("USE_CAPTURED_AUDIO", true);
+		soundFilename = ConfigFileParser.getSettingOrDefault("WAV_FILE_NAME", soundFilename);
+		AUDIO_PASS_THRU = ConfigFileParser.getSettingOrDefault("AUDIO_PASS_THROUGH", false);
+		RENDER_CUE_FILE = ConfigFileParser.getSettingOrDefault("RENDER_CUE_FILE", (String) null);
+		PLAY_CUE_FILE = ConfigFileParser.getSettingOrDefault("PLAY_CUE_FILE", (String) null);
+		FILE_LOOKAHEAD_MS = ConfigFileParser.getSettingOrDefault("FILE_LOOKAHEAD_MS", 100);
+		OfflineRenderer.USE_AUTO_DJ = ConfigFileParser.getSettingOrDefault("RENDER_AUTO_DJ", true);
+		VectorSupport.setEnabled(ConfigFileParser.getSettingOrDefault("USE_VECTOR_API", true));
+		FFTPlanner.setPreferredAlgorithm(ConfigFileParser.getSettingOrDefault("FFT_ALGORITHM", FFTPlanner.AUTO));
+		VisualizationEngine.USE_SLIDING_SPECTRUM = ConfigFileParser.getSettingOrDefault("SLIDING_SPECTRUM", false);
+		VisualizationEngine.USE_BAND_ANALYSIS = ConfigFileParser.getSettingOrDefault("BAND_ANALYSIS", true);
+		VisualizationEngine.REMOVE_DC_OFFSET = ConfigFileParser.getSettingOrDefault("REMOVE_DC_OFFSET", true);
+		VisualizationEngine.USE_MULTI_RESOLUTION = ConfigFileParser.getSettingOrDefault("MULTI_RESOLUTION", true);
+		VisualizationEngine.CHANNEL_MODE = PCMDecoder.parseChannelMode(ConfigFileParser.getSettingOrDefault("CHANNEL_MODE", "LEFT"));
+		VisualizationEngine.REPORT_RENDER_TIMING = ConfigFileParser.getSettingOrDefault("REPORT_RENDER_TIMING", false);
+		VisualizationEngine.PROFILE_PIPELINE = ConfigFileParser.getSettingOrDefault("PROFILE_PIPELINE", true);
+		VisualizationEngine.PROFILE_DUMP_FILE = ConfigFileParser.getSettingOrDefault("PROFILE_DUMP_FILE", (String) null);
+		VisualizationEngine.BUFFER_SIZE = ConfigFileParser.getSettingOrDefault("FFT_SIZE", 2048);
+		VisualizationEngine.BUFFER_OVERLAP = ConfigFileParser.getSettingOrDefault("FFT_OVERLAP", 4);
+		VisualizationEngine.checkAnalysisSize(VisualizationEngine.BUFFER_SIZE, VisualizationEngine.BUFFER_OVERLAP);
+		VisualizationEngine.USE_QUALITY_GOVERNOR = ConfigFileParser.getSettingOrDefault("QUALITY_GOVERNOR", true);
+		VisualizationEngineParty.HEADLESS = ConfigFileParser.getSettingOrDefault("HEADLESS", false);
+		VisualizationEngineParty.CONTROL_PORT = ConfigFileParser.getSettingOrDefault("CONTROL_PORT", 0);
+		VisualizationEngineParty.CONTROL_ADDRESS = ConfigFileParser.getSettingOrDefault("CONTROL_ADDRESS", "127.0.0.1");
+		if (VisualizationEngineParty.HEADLESS) {
+			// Make sure nothing tries to open a window (this has to be set before AWT starts up)
+			System.setProperty("java.awt.headless", "true");
+		}
+		SoundVisualizer.USE_ANALYSIS_THREAD = ConfigFileParser.getSettingOrDefault("ANALYSIS_THREAD", true);
+		CAPTURE_SAMPLE_RATE = ConfigFileParser.getSettingOrDefault("CAPTURE_SAMPLE_RATE", SAMPLE_RATE);
+		CAPTURE_SAMPLE_FORMAT = ConfigFileParser.getSettingOrDefault("CAPTURE_SAMPLE_FORMAT", "PCM16");
 		
 	
 		
@@ -113,7 +160,10 @@ public class MainClass {
 		// Set the audio buffer to read at a good chunk size
 		AUDIO_READ_BUFFER_SIZE = VisualizationEngine.BUFFER_SIZE * format.getFrameSize() / VisualizationEngine.BUFFER_OVERLAP;
 		
-		SoundVisualizer engine = new SoundVisualizer(format, true, INITIAL_AUDIO_DELAY, INITIAL_VIDEO_DELAY, AUDIO_READ_BUFFER_SIZE);
+		// Analyze the audio ahead of the speakers (by delaying it on the way to them), and show each frame right when its audio plays
+		double audioDelay = INITIAL_AUDIO_DELAY + FILE_LOOKAHEAD_MS / 1000.0;
+		SoundVisualizer engine = new SoundVisualizer(format, true, audioDelay, INITIAL_VIDEO_DELAY, AUDIO_READ_BUFFER_SIZE);
+		engine.setLookahead(FILE_LOOKAHEAD_MS > 0);
 		// Start sending it data!
 		int bytesToRead = AUDIO_READ_BUFFER_SIZE;
 		
@@ -142,12 +192,67 @@ public class MainClass {
 	
 	
 	
+	// Play a pre-rendered show: the audio file, with the lights from a cue file. Typing in a time (i.e. 1:23.5) jumps there.
+	public static void runFromCueFile() {
+		final CuePlayer player = new CuePlayer(PLAY_CUE_FILE);
+		
+		Thread console = new Thread(new Runnable() {
+			public void run() {
+				BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+				try {
+					String line;
+					while((line = in.readLine()) != null) {
+						try {
+							player.seek(parseTime(line.trim()));
+						} catch (NumberFormatException e) {
+							System.out.println("Type a time to jump to, like 83.5 or 1:23.5");
+						}
+					}
+				} catch (IOException e) {
+					// No console - nothing to do
+				}
+			}
+		}, "Cue console");
+		console.setDaemon(true);
+		console.start();
+		
+		player.play(soundFilename);
+	}
+	
+	// Parse a time in seconds, or minutes:seconds
+	private static double parseTime(String time) {
+		int colon = time.indexOf(':');
+		if (colon < 0) {
+			return Double.parseDouble(time);
+		}
+		return 60 * Integer.parseInt(time.substring(0, colon)) + Double.parseDouble(time.substring(colon + 1));
+	}
+	
+	
+	// Stereo audio in the named sample format (PCM16, PCM24, PCM32 or FLOAT32), at the given sample rate.
+	protected static AudioFormat createCaptureFormat(String sampleFormat, int sampleRate) {
+		String name = sampleFormat.trim().toUpperCase();
+		if (name.equals("PCM16")) {
+			return new AudioFormat((float) sampleRate, 16, 2, true, false);
+		} else if (name.equals("PCM24")) {
+			return new AudioFormat((float) sampleRate, 24, 2, true, false);
+		} else if (name.equals("PCM32")) {
+			return new AudioFormat((float) sampleRate, 32, 2, true, false);
+		} else if (name.equals("FLOAT32")) {
+			return new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, (float) sampleRate, 32, 2, 8, (float) sampleRate, false);
+		} else {
+			System.out.println("Warning: Unknown capture sample format \"" + sampleFormat + "\", using PCM16 instead.");
+			return new AudioFormat((float) sampleRate, 16, 2, true, false);
+		}
+	}
+	
 	// Capture live audio from the computer system, and run on this.
 	public static void runWithCapturedAudio() {
 		
-		// Set up the desired input audio format,  using a default reasonable value
-		AudioFormat format;
-		format = new AudioFormat((float) SAMPLE_RATE, 16, 2, true, false);
+		// Set up the desired input audio format, as given in the config file. Asking for the sound card's
+		// native format means the OS doesn't have to convert or resample it first, which adds latency.
+		AudioFormat format = createCaptureFormat(CAPTURE_SAMPLE_FORMAT, CAPTURE_SAMPLE_RATE);
+		System.out.println("Capturing audio as " + format);
 		
 		TargetDataLine line;
 		DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
@@ -181,14 +286,29 @@ public class MainClass {
 			byte[] audioData = new byte[bytesToRead];
 			
 			line.start();
-			line.read(audioData, 0, bytesToRead);	// Start reading now, just to make sure everything is set up
+			long framesRead = line.read(audioData, 0, bytesToRead) / format.getFrameSize();	// Start reading now, just to make sure everything is set up
 
 			//TimerTicToc t = new TimerTicToc(); // Useful for benchmarking
-			engine.start(bytesToRead / (SAMPLE_RATE * format.getFrameSize()));
+			engine.start(bytesToRead / ((int) format.getSampleRate() * format.getFrameSize()));
+			int frameSize = format.getFrameSize();
 			while((numBytesRead = line.read(audioData, 0, bytesToRead)) != -1) {
+				// Keep track of the sound card's clock, so the lights stay in sync with it
+				long linePosition = line.getLongFramePosition();
+				engine.getCaptureClock().update(linePosition, System.nanoTime());
+				
+				// If the line overran while we were busy, the audio it threw away was never read, but the sound card
+				// still counted it. Skip ahead over it, so that the rest stays lined up with the clock.
+				int framesInChunk = numBytesRead / frameSize;
+				long chunkEnd = linePosition - line.available() / frameSize;
+				if (chunkEnd - (framesRead + framesInChunk) > bytesToRead / frameSize) {
+					System.out.println("Warning: The audio input overran, and " + (chunkEnd - framesRead - framesInChunk) + " frames of audio were lost!");
+					framesRead = chunkEnd - framesInChunk;
+				}
+				
 				// Send data!
 				//t.tic();
-				engine.write(audioData, 0, numBytesRead);
+				engine.write(audioData, 0, numBytesRead, framesRead);
+				framesRead += framesInChunk;
 				//t.toc();
 				
 				//System.out.println("Engine: " + t.getAverageTime());
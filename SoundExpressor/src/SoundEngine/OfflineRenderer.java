@@ -0,0 +1,165 @@
+package SoundEngine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * Works out the lights for a whole audio file ahead of time, as fast as the computer can go,
+ * and saves them to a cue file (see CueFile) - so that a whole set can be rendered in a minute
+ * or two, looked over, and played back at the party.
+ *
+ * The audio goes through the same VisualizationEngineParty as it would live (without a GUI,
+ * LEDs or MIDI), at full quality. The feature detectors and visualizers each remember what
+ * they've heard, so the frames have to be computed one after another, in order. The rest is
+ * spread out over the other cores: the audio file is read and decoded on one thread, the cue
+ * file is written on another, and the FFTs at other resolutions (and of other channels) are
+ * computed on their own threads as usual.
+ *
+ * @author Steve Levine
+ *
+ */
+public class OfflineRenderer {
+
+	// Let the auto-DJ switch visualizers while rendering (otherwise, the default two are used throughout)
+	static protected boolean USE_AUTO_DJ = true;
+
+	private static final int READ_SIZE = 1 << 16;			// Bytes of audio to read at a time (about 0.4 seconds of CD audio)
+	private static final int READ_QUEUE_SIZE = 16;			// Chunks of audio to read ahead
+
+	// Put on the read queue after the last chunk
+	private static final byte[] END = new byte[0];
+
+
+	/**
+	 * Render the given audio file into the given cue file. Blocks until it's done.
+	 */
+	public static void render(String audioFilename, String cueFilename) {
+
+		// Open up the audio file
+		final AudioInputStream audioInputStream;
+		try {
+			audioInputStream = AudioSystem.getAudioInputStream(new File(audioFilename));
+		} catch (UnsupportedAudioFileException e) {
+			throw new RuntimeException("Error: " + audioFilename + " is not an audio file that can be read!", e);
+		} catch (IOException e) {
+			throw new RuntimeException("Error: Could not open the audio file " + audioFilename + "!", e);
+		}
+		AudioFormat format = audioInputStream.getFormat();
+		final int frameSize = format.getFrameSize();
+
+		// Set up the engine to render offline, without a GUI (putting things back the way they were afterwards)
+		boolean wasOffline = VisualizationEngine.RENDER_OFFLINE;
+		boolean wasHeadless = VisualizationEngineParty.HEADLESS;
+		VisualizationEngine.RENDER_OFFLINE = true;
+		VisualizationEngineParty.HEADLESS = true;
+		Thread reader = null;
+		CueFileWriter writer = null;
+		try {
+			VisualizationEngineParty engine = new VisualizationEngineParty(format, 0.0);
+			engine.useAutoDJ = USE_AUTO_DJ;
+			engine.start(0.0);
+			writer = new CueFileWriter(cueFilename, (int) format.getSampleRate(), engine.getFFTSize(), engine.getFFTOverlap(), engine.frameWidth);
+			engine.setCueWriter(writer);
+
+			// Read the audio in on another thread, so the engine doesn't have to wait for the disk
+			final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<byte[]>(READ_QUEUE_SIZE);
+			final IOException[] readError = new IOException[1];
+			reader = new Thread(new Runnable() {
+				public void run() {
+					try {
+						while(true) {
+							byte[] chunk = new byte[READ_SIZE - READ_SIZE % frameSize];
+							int length = readFully(audioInputStream, chunk);
+							if (length <= 0) {
+								break;
+							} else if (length < chunk.length) {
+								byte[] last = new byte[length];
+								System.arraycopy(chunk, 0, last, 0, length);
+								chunks.put(last);
+								break;
+							}
+							chunks.put(chunk);
+						}
+					} catch (IOException e) {
+						readError[0] = e;
+					} catch (InterruptedException e) {
+						return;
+					}
+					try {
+						chunks.put(END);
+					} catch (InterruptedException e) {
+						// Stopped
+					}
+				}
+			}, "Audio file reader");
+			reader.setDaemon(true);
+
+			System.out.println("Rendering " + audioFilename + " to " + cueFilename + "...");
+			long startTime = System.nanoTime();
+			long framesOfAudio = 0;
+			reader.start();
+			try {
+				while(true) {
+					byte[] chunk = chunks.take();
+					if (chunk == END) {
+						break;
+					}
+					engine.write(chunk, 0, chunk.length);
+					framesOfAudio += chunk.length / frameSize;
+				}
+			} catch (InterruptedException e) {
+				throw new RuntimeException("Error: Interrupted while rendering " + audioFilename + "!");
+			}
+			writer.close();
+			engine.setCueWriter(null);
+			if (readError[0] != null) {
+				throw new RuntimeException("Error: Could not finish reading the audio file " + audioFilename + "!", readError[0]);
+			}
+
+			double audioSeconds = framesOfAudio / format.getFrameRate();
+			double renderSeconds = (System.nanoTime() - startTime) / 1000000000.0;
+			System.out.println(String.format("Rendered %d:%02d of audio into %d frames in %.1f seconds (%.0fx real time).",
+					(int) audioSeconds / 60, (int) audioSeconds % 60, writer.getFramesWritten(), renderSeconds, audioSeconds / renderSeconds));
+
+		} finally {
+			if (reader != null) {
+				reader.interrupt();
+			}
+			if (writer != null) {
+				try {
+					writer.close();		// (Already done, unless something went wrong)
+				} catch (RuntimeException e) {
+					// Already on the way out with the first error
+				}
+			}
+			try {
+				audioInputStream.close();
+			} catch (IOException e) {
+				// Nothing more to read from it anyway
+			}
+			VisualizationEngine.RENDER_OFFLINE = wasOffline;
+			VisualizationEngineParty.HEADLESS = wasHeadless;
+		}
+	}
+
+	// Read until the buffer is full or the stream ends, and return how much was read (-1 if nothing was left)
+	private static int readFully(AudioInputStream in, byte[] buffer) throws IOException {
+		int total = 0;
+		while(total < buffer.length) {
+			int n = in.read(buffer, total, buffer.length - total);
+			if (n < 0) {
+				break;
+			}
+			total += n;
+		}
+		return (total == 0 ? -1 : total);
+	}
+
+}
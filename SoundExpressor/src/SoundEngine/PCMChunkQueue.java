@@ -0,0 +1,192 @@
+package SoundEngine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands chunks of raw audio from one thread (the audio capture) to one other thread (the
+ * analysis), without either of them ever taking a lock.
+ *
+ * The queue is a fixed ring of preallocated slots, so no memory is allocated once it's running.
+ * The producer copies each chunk into the next free slot and publishes it; the consumer copies
+ * it back out and frees the slot. The producer never waits: if the consumer has fallen so far
+ * behind that every slot is full, the new chunk is dropped and counted as an overrun. That way,
+ * a hiccup in the visuals costs a few frames of lights rather than stalling the sound card
+ * (which would lose audio, and throw off the timing of everything after it).
+ *
+ * Only one thread may call offer(), and only one (other) thread may call take().
+ *
+ * @author Steve Levine
+ *
+ */
+public class PCMChunkQueue {
+
+	private final int numSlots;
+	private final int mask;
+	private final int slotSize;
+	private final byte[][] slots;
+	private final int[] slotLengths;
+	private final long[] slotPositions;		// The stream position (in frames) of the first frame in each slot
+	private final int frameSize;
+	private long takenPosition = 0;
+
+	// Total number of chunks ever published, and ever taken. Slot i % numSlots is full if head <= i < tail.
+	private final AtomicLong tail = new AtomicLong(0);
+	private final AtomicLong head = new AtomicLong(0);
+
+	// The consumer, if it's waiting for a chunk, so that the producer can wake it up
+	private volatile Thread waitingConsumer = null;
+
+	// Statistics. Each one is only ever written by one thread.
+	private volatile long chunksOffered = 0;
+	private volatile long overruns = 0;
+	private volatile long droppedBytes = 0;
+	private volatile int maxOccupancy = 0;
+
+
+	/**
+	 * Create a queue that holds up to numSlots chunks (rounded up to a power of 2) of at most
+	 * slotSize bytes each, of audio with the given frame size. Bigger chunks are split across
+	 * several slots, so slotSize must be a multiple of the frame size.
+	 */
+	public PCMChunkQueue(int numSlots, int slotSize, int frameSize) {
+		if (numSlots < 2 || slotSize < 1) {
+			throw new RuntimeException("Error: A PCM chunk queue needs at least 2 slots of at least 1 byte!");
+		} else if (slotSize % frameSize != 0) {
+			throw new RuntimeException("Error: PCM chunk queue slots must hold a whole number of frames!");
+		}
+		this.frameSize = frameSize;
+		int n = Integer.highestOneBit(numSlots);
+		if (n < numSlots) {
+			n <<= 1;
+		}
+		this.numSlots = n;
+		this.mask = n - 1;
+		this.slotSize = slotSize;
+		slots = new byte[n][slotSize];
+		slotLengths = new int[n];
+		slotPositions = new long[n];
+	}
+
+	public int getNumSlots() {
+		return numSlots;
+	}
+
+	public int getSlotSize() {
+		return slotSize;
+	}
+
+
+	/**
+	 * Producer only: queue up a copy of data[offset] ... data[offset + length - 1], whose first
+	 * frame is at the given position in the stream. Never blocks. Returns false if there wasn't
+	 * room for all of it (the part that didn't fit is dropped).
+	 */
+	public boolean offer(byte[] data, int offset, int length, long framePosition) {
+		chunksOffered++;
+		boolean fit = true;
+
+		while(length > 0) {
+			long t = tail.get();
+			int occupancy = (int) (t - head.get());
+			if (occupancy >= numSlots) {
+				// Full! Drop the rest
+				overruns++;
+				droppedBytes += length;
+				fit = false;
+				break;
+			}
+
+			int slot = (int) t & mask;
+			int n = Math.min(length, slotSize);
+			System.arraycopy(data, offset, slots[slot], 0, n);
+			slotLengths[slot] = n;
+			slotPositions[slot] = framePosition;
+			tail.set(t + 1);		// Publish it (a full volatile write, so it can't pass the check of waitingConsumer below)
+
+			if (occupancy + 1 > maxOccupancy) {
+				maxOccupancy = occupancy + 1;
+			}
+			offset += n;
+			length -= n;
+			framePosition += n / frameSize;
+		}
+
+		// Wake up the consumer, if it's waiting
+		Thread consumer = waitingConsumer;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+		return fit;
+	}
+
+
+	/**
+	 * Consumer only: wait until a chunk is available, copy it into dest (which must be at least
+	 * getSlotSize() long), and return its length. Its stream position is then available from
+	 * getTakenPosition(). Returns -1 if the thread was interrupted.
+	 */
+	public int take(byte[] dest) {
+		long h = head.get();
+
+		// Wait for something to show up. Say that we're waiting before checking one last time, so
+		// a chunk published in between can't be missed (the producer will unpark us).
+		if (h == tail.get()) {
+			waitingConsumer = Thread.currentThread();
+			while(h == tail.get()) {
+				if (Thread.interrupted()) {
+					waitingConsumer = null;
+					return -1;
+				}
+				LockSupport.park(this);
+			}
+			waitingConsumer = null;
+		}
+
+		int slot = (int) h & mask;
+		int n = slotLengths[slot];
+		System.arraycopy(slots[slot], 0, dest, 0, n);
+		takenPosition = slotPositions[slot];
+		head.lazySet(h + 1);		// Free up the slot (after the copy above)
+		return n;
+	}
+
+
+	/**
+	 * Consumer only: the stream position of the first frame of the chunk last returned by take().
+	 * If chunks were dropped before it, this will have jumped ahead.
+	 */
+	public long getTakenPosition() {
+		return takenPosition;
+	}
+
+	/**
+	 * How many chunks are waiting to be taken right now.
+	 */
+	public int size() {
+		return (int) (tail.get() - head.get());
+	}
+
+	public long getChunksOffered() {
+		return chunksOffered;
+	}
+
+	/**
+	 * How many times offer() found the queue full, and had to drop audio.
+	 */
+	public long getOverruns() {
+		return overruns;
+	}
+
+	public long getDroppedBytes() {
+		return droppedBytes;
+	}
+
+	/**
+	 * The most chunks that have ever been waiting at once.
+	 */
+	public int getMaxOccupancy() {
+		return maxOccupancy;
+	}
+
+}
@@ -0,0 +1,213 @@
+package SoundEngine;
+
+import java.nio.ByteOrder;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Turns blocks of raw PCM audio, as it comes from the sound card, into streams of doubles
+ * between -1 and 1 that are ready for analysis.
+ *
+ * Decoding happens a whole block at a time: a SampleDecoder made for the audio format (16, 24
+ * or 32 bit integers, or 32 bit floats, in either byte order) converts all of the samples in
+ * one tight loop, and then they're split up into streams, rather than assembling each sample
+ * out of bytes one at a time.
+ *
+ * The ChannelMode picks which streams come out of a multi-channel (i.e., stereo) signal:
+ * just the left or right channel, their average, the mid and side signals, or every channel
+ * separately. Stream 0 is always the one that gets the full analysis; any others are extra
+ * (see VisualizationEngine.getStreamFFT).
+ *
+ * Not thread safe - each engine needs its own decoder.
+ *
+ * @author Steve Levine
+ *
+ */
+public class PCMDecoder {
+
+	public enum ChannelMode {
+		LEFT,			// Just the first channel
+		RIGHT,			// Just the second channel (the first, for mono audio)
+		MONO,			// The average of all of the channels
+		MID_SIDE,		// Stream 0 is the mid (L + R) / 2, stream 1 the side (L - R) / 2
+		PER_CHANNEL		// One stream per channel, in order
+	}
+
+	private final int numChannels;
+	private final int frameSize;
+	private final ChannelMode mode;
+	private final int numStreams;
+	private final SampleDecoder sampleDecoder;
+
+	// Scratch space, grown as needed (so only when a bigger block than ever before comes in)
+	private double[] interleaved = new double[0];
+
+
+	public PCMDecoder(AudioFormat format, ChannelMode mode) {
+		numChannels = format.getChannels();
+		if (numChannels < 1) {
+			throw new RuntimeException("Error: Audio must have at least one channel!");
+		}
+		sampleDecoder = createSampleDecoder(format);
+		frameSize = numChannels * sampleDecoder.getBytesPerSample();
+		if (format.getFrameSize() != frameSize) {
+			throw new RuntimeException("Error: Unsupported audio format (samples must be packed with no padding): " + format);
+		}
+		this.mode = mode;
+
+		switch(mode) {
+		case MID_SIDE:
+			numStreams = 2;
+			break;
+		case PER_CHANNEL:
+			numStreams = numChannels;
+			break;
+		default:
+			numStreams = 1;
+			break;
+		}
+	}
+
+
+	/**
+	 * Create the SampleDecoder for the given audio format, or throw an error if it isn't supported.
+	 */
+	public static SampleDecoder createSampleDecoder(AudioFormat format) {
+		AudioFormat.Encoding encoding = format.getEncoding();
+		int bits = format.getSampleSizeInBits();
+		ByteOrder order = (format.isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+
+		if (encoding.equals(AudioFormat.Encoding.PCM_SIGNED)) {
+			switch(bits) {
+			case 16:
+				return new Int16SampleDecoder(order);
+			case 24:
+				return new Int24SampleDecoder(format.isBigEndian());
+			case 32:
+				return new Int32SampleDecoder(order);
+			}
+		} else if (encoding.equals(AudioFormat.Encoding.PCM_FLOAT) && bits == 32) {
+			return new Float32SampleDecoder(order);
+		}
+
+		throw new RuntimeException("Error: Unsupported audio format (need 16, 24 or 32 bit signed PCM, or 32 bit float): " + format);
+	}
+
+
+	/**
+	 * Look up a ChannelMode by name (as given in the config file). Falls back to LEFT if the
+	 * name isn't recognized.
+	 */
+	public static ChannelMode parseChannelMode(String name) {
+		try {
+			return ChannelMode.valueOf(name.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			System.out.println("Warning: Unknown channel mode \"" + name + "\", using LEFT instead.");
+			return ChannelMode.LEFT;
+		}
+	}
+
+
+	public int getNumChannels() {
+		return numChannels;
+	}
+
+	public ChannelMode getChannelMode() {
+		return mode;
+	}
+
+	/**
+	 * How many streams each block is decoded into.
+	 */
+	public int getNumStreams() {
+		return numStreams;
+	}
+
+	public int getFrameSize() {
+		return frameSize;
+	}
+
+	public SampleDecoder getSampleDecoder() {
+		return sampleDecoder;
+	}
+
+
+	/**
+	 * Decode length bytes of audio starting at data[offset] (a whole number of frames). Frame n
+	 * of stream s is written to streams[s][n], which must be long enough. Returns the number of
+	 * frames decoded.
+	 */
+	public int decode(byte[] data, int offset, int length, double[][] streams) {
+		int numFrames = length / getFrameSize();
+		int numSamples = numFrames * numChannels;
+
+		if (streams.length < numStreams) {
+			throw new RuntimeException("Error: Need " + numStreams + " output streams to decode into!");
+		}
+		if (interleaved.length < numSamples) {
+			interleaved = new double[numSamples];
+		}
+
+		// Convert all of the samples to between -1 and 1 in one go
+		sampleDecoder.decode(data, offset, numSamples, interleaved);
+
+		splitChannels(interleaved, numFrames, streams);
+		return numFrames;
+	}
+
+
+	// Split up the interleaved, scaled samples into streams, according to the channel mode.
+	private void splitChannels(double[] x, int numFrames, double[][] streams) {
+		int C = numChannels;
+
+		switch(mode) {
+		case LEFT:
+			copyChannel(x, 0, numFrames, streams[0]);
+			break;
+
+		case RIGHT:
+			copyChannel(x, Math.min(1, C - 1), numFrames, streams[0]);
+			break;
+
+		case MONO: {
+			double[] out = streams[0];
+			double scale = 1.0 / C;
+			for(int n = 0; n < numFrames; n++) {
+				double sum = 0;
+				for(int c = 0; c < C; c++) {
+					sum += x[n*C + c];
+				}
+				out[n] = sum * scale;
+			}
+			break;
+		}
+
+		case MID_SIDE: {
+			double[] mid = streams[0];
+			double[] side = streams[1];
+			int right = Math.min(1, C - 1);
+			for(int n = 0; n < numFrames; n++) {
+				double l = x[n*C];
+				double r = x[n*C + right];
+				mid[n] = 0.5 * (l + r);
+				side[n] = 0.5 * (l - r);
+			}
+			break;
+		}
+
+		case PER_CHANNEL:
+			for(int c = 0; c < C; c++) {
+				copyChannel(x, c, numFrames, streams[c]);
+			}
+			break;
+		}
+	}
+
+	private void copyChannel(double[] x, int channel, int numFrames, double[] out) {
+		int C = numChannels;
+		for(int n = 0; n < numFrames; n++) {
+			out[n] = x[n*C + channel];
+		}
+	}
+
+}
@@ -0,0 +1,280 @@
+package SoundEngine;
+
+import java.awt.event.KeyEvent;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import javax.sound.midi.ShortMessage;
+
+import Visualizors.Visualizer;
+
+/**
+ * Lets the LightDJ be controlled over a network socket, one line of text per command, so that
+ * a show can be run without the GUI (see VisualizationEngineParty.HEADLESS) - from a script, a
+ * phone, or just telnet. Everything the keyboard and MIDI controllers can do can be done here,
+ * since the commands go through the same code:
+ *
+ *   LIST                         List the visualizers
+ *   STATUS                       Which visualizers are mixed, the cross-fade, and how the timing is doing
+ *   LEFT <index or name>         Put a visualizer on the left (or RIGHT)
+ *   CROSSFADE <0 to 1>           Set the cross-fade (0 is all left)
+ *   FADE <LEFT or RIGHT> [FAST]  Cross-fade all the way over, gradually
+ *   KEY <key> <DOWN or UP>       Press or release a key, i.e. "KEY F12 DOWN" (names as in KeyEvent.VK_*)
+ *   MIDI <command> <data1> <data2>   Act on a short MIDI message, as if from a MIDI controller
+ *   AUTODJ <ON or OFF>           Let the auto-DJ switch visualizers
+ *   FFT <size> <overlap>         Change the FFT size and overlap on the fly
+ *   PROFILE [RESET]              What each stage of the pipeline costs (see PipelineProfiler), or start it over
+ *   HELP                         List the commands
+ *
+ * Each command is answered with a line starting with OK (possibly followed by more lines, and
+ * then a blank line) or ERROR. Only connections from this computer are accepted, unless
+ * CONTROL_ADDRESS says otherwise.
+ *
+ * @author Steve Levine
+ *
+ */
+public class PartyControlServer implements Runnable {
+
+	private final VisualizationEngineParty engine;
+	private final ServerSocket serverSocket;
+
+
+	/**
+	 * Listen on the given port of the given address (i.e., "127.0.0.1" for only this computer,
+	 * or "0.0.0.0" for anywhere).
+	 */
+	public PartyControlServer(VisualizationEngineParty engine, String address, int port) {
+		this.engine = engine;
+		try {
+			serverSocket = new ServerSocket(port, 4, InetAddress.getByName(address));
+		} catch (IOException e) {
+			throw new RuntimeException("Error: Could not open the control socket on " + address + ":" + port + "!", e);
+		}
+	}
+
+	/**
+	 * Start accepting connections in the background.
+	 */
+	public void start() {
+		Thread thread = new Thread(this, "Control socket");
+		thread.setDaemon(true);
+		thread.start();
+		System.out.println("Listening for control commands on " + serverSocket.getLocalSocketAddress());
+	}
+
+	@Override
+	public void run() {
+		while(true) {
+			try {
+				final Socket socket = serverSocket.accept();
+				Thread connection = new Thread(new Runnable() {
+					public void run() {
+						handleConnection(socket);
+					}
+				}, "Control connection");
+				connection.setDaemon(true);
+				connection.start();
+			} catch (IOException e) {
+				System.out.println("Error accepting a control connection!");
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void handleConnection(Socket socket) {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+			PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+			String line;
+			while((line = in.readLine()) != null) {
+				if (line.trim().length() == 0) {
+					continue;
+				}
+				String response;
+				try {
+					response = processCommand(line.trim().split("\\s+"));
+				} catch (RuntimeException e) {
+					response = "ERROR " + e.getMessage();
+				}
+				out.println(response);
+			}
+			socket.close();
+		} catch (IOException e) {
+			// The other end went away - nothing to do
+		}
+	}
+
+
+	/**
+	 * Carry out one command (already split into words), and return the response.
+	 */
+	public String processCommand(String[] words) {
+		String command = words[0].toUpperCase();
+
+		if (command.equals("LIST")) {
+			StringBuilder list = new StringBuilder("OK\n");
+			for(int i = 0; i < engine.visualizers.size(); i++) {
+				list.append(i + " " + engine.visualizers.get(i).getName() + "\n");
+			}
+			return list.toString();
+
+		} else if (command.equals("STATUS")) {
+			return "OK\n"
+					+ "Left: " + engine.visualizers.get(VisualizationEngineParty.visualizerLeftIndex).getName() + "\n"
+					+ "Right: " + engine.visualizers.get(VisualizationEngineParty.visualizerRightIndex).getName() + "\n"
+					+ String.format("Crossfade: %.3f\n", VisualizationEngineParty.alpha)
+					+ String.format("FFT: %d points, %dx overlap, %.1f updates per second\n", engine.getFFTSize(), engine.getFFTOverlap(), engine.getUpdatesPerSecond())
+					+ engine.getRenderSchedulingReport() + "\n"
+					+ engine.getQualityReport() + "\n";
+
+		} else if (command.equals("LEFT") || command.equals("RIGHT")) {
+			checkNumWords(words, 2);
+			int index = findVisualizer(joinWords(words, 1));
+			engine.chooseVisualizer(index, command.equals("LEFT") ? 0 : 1);
+			return "OK";
+
+		} else if (command.equals("CROSSFADE")) {
+			checkNumWords(words, 2);
+			double a = parseDouble(words[1]);
+			engine.endAutomaticCrossfade();
+			engine.crossfaderKnob.setValue((float) Math.max(0.0, Math.min(1.0, a)));
+			return "OK";
+
+		} else if (command.equals("FADE")) {
+			checkNumWords(words, 2);
+			boolean fast = (words.length > 2 && words[2].equalsIgnoreCase("FAST"));
+			double speed = (fast ? VisualizationEngineParty.CROSSFADE_SPEED_FAST : VisualizationEngineParty.CROSSFADE_SPEED_SLOW);
+			if (words[1].equalsIgnoreCase("LEFT")) {
+				engine.startAutoCrossfade(-speed);
+			} else if (words[1].equalsIgnoreCase("RIGHT")) {
+				engine.startAutoCrossfade(speed);
+			} else {
+				throw new RuntimeException("Fade LEFT or RIGHT?");
+			}
+			return "OK";
+
+		} else if (command.equals("KEY")) {
+			checkNumWords(words, 3);
+			int keyCode = findKeyCode(words[1]);
+			if (words[2].equalsIgnoreCase("DOWN")) {
+				engine.keyDown(keyCode);
+			} else if (words[2].equalsIgnoreCase("UP")) {
+				engine.keyUp(keyCode);
+			} else {
+				throw new RuntimeException("Key DOWN or UP?");
+			}
+			return "OK";
+
+		} else if (command.equals("MIDI")) {
+			checkNumWords(words, 4);
+			try {
+				ShortMessage message = new ShortMessage();
+				message.setMessage(parseInt(words[1]), parseInt(words[2]), parseInt(words[3]));
+				engine.processMIDIEvent(message);
+			} catch (Exception e) {
+				throw new RuntimeException("Invalid MIDI message: " + e.getMessage());
+			}
+			return "OK";
+
+		} else if (command.equals("AUTODJ")) {
+			checkNumWords(words, 2);
+			engine.useAutoDJ = words[1].equalsIgnoreCase("ON");
+			return "OK";
+
+		} else if (command.equals("FFT")) {
+			checkNumWords(words, 3);
+			engine.reconfigure(parseInt(words[1]), parseInt(words[2]));
+			return "OK";
+
+		} else if (command.equals("PROFILE")) {
+			PipelineProfiler profiler = engine.getPipelineProfiler();
+			if (profiler == null) {
+				throw new RuntimeException("Profiling is off (see PROFILE_PIPELINE)");
+			} else if (words.length > 1 && words[1].equalsIgnoreCase("RESET")) {
+				profiler.reset();
+				return "OK";
+			}
+			StringBuilder report = new StringBuilder("OK\n");
+			for(String line : profiler.getReport()) {
+				report.append(line + "\n");
+			}
+			return report.toString();
+
+		} else if (command.equals("HELP")) {
+			return "OK\nLIST, STATUS, LEFT <visualizer>, RIGHT <visualizer>, CROSSFADE <0-1>, FADE <LEFT|RIGHT> [FAST], "
+					+ "KEY <key> <DOWN|UP>, MIDI <command> <data1> <data2>, AUTODJ <ON|OFF>, FFT <size> <overlap>, PROFILE [RESET]\n";
+		}
+
+		throw new RuntimeException("Unknown command " + words[0] + " (try HELP)");
+	}
+
+
+	// Find a visualizer by its index, or its name (ignoring case and spaces)
+	private int findVisualizer(String nameOrIndex) {
+		try {
+			int index = Integer.parseInt(nameOrIndex);
+			if (index >= 0 && index < engine.visualizers.size()) {
+				return index;
+			}
+		} catch (NumberFormatException e) {
+			String name = nameOrIndex.replace(" ", "");
+			for(int i = 0; i < engine.visualizers.size(); i++) {
+				Visualizer v = engine.visualizers.get(i);
+				if (v.getName().replace(" ", "").equalsIgnoreCase(name)) {
+					return i;
+				}
+			}
+		}
+		throw new RuntimeException("No such visualizer: " + nameOrIndex);
+	}
+
+	// Look up a key code by name, i.e. "F12" or "SPACE" for KeyEvent.VK_F12 or KeyEvent.VK_SPACE
+	private static int findKeyCode(String name) {
+		try {
+			return KeyEvent.class.getField("VK_" + name.toUpperCase()).getInt(null);
+		} catch (Exception e) {
+			throw new RuntimeException("No such key: " + name);
+		}
+	}
+
+	private static void checkNumWords(String[] words, int n) {
+		if (words.length < n) {
+			throw new RuntimeException(words[0].toUpperCase() + " needs " + (n - 1) + " argument(s) (try HELP)");
+		}
+	}
+
+	private static String joinWords(String[] words, int start) {
+		StringBuilder joined = new StringBuilder(words[start]);
+		for(int i = start + 1; i < words.length; i++) {
+			joined.append(" ").append(words[i]);
+		}
+		return joined.toString();
+	}
+
+	private static int parseInt(String s) {
+		try {
+			return Integer.parseInt(s);
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("Not a number: " + s);
+		}
+	}
+
+	private static double parseDouble(String s) {
+		double value;
+		try {
+			value = Double.parseDouble(s);
+		} catch (NumberFormatException e) {
+			throw new RuntimeException("Not a number: " + s);
+		}
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			throw new RuntimeException("Not a number: " + s);
+		}
+		return value;
+	}
+
+}
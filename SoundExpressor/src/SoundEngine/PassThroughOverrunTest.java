@@ -0,0 +1,104 @@
+package SoundEngine;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.SourceDataLine;
+
+import LightDJGUI.ConfigFileParser;
+
+/**
+ * Checks that audio passed through to the speakers stays lined up with the output clock when
+ * the capture overruns. Audio is written into a SoundVisualizer with a gap in it, as MainClass
+ * does when the line-in threw some away, and every frame should come out of the (pretend)
+ * sound card exactly where the visuals think it will: at its stream position plus the clock
+ * offset. The lost audio should come out as silence.
+ *
+ * Run from the SoundExpressor directory, since it reads config_settings.conf.
+ *
+ * @author Steve Levine
+ *
+ */
+public class PassThroughOverrunTest {
+
+	private static final int CHUNK_FRAMES = 512;
+	private static final int LOST_FRAMES = 1024;
+
+	public static void main(String[] args) {
+		ConfigFileParser.parseFile("config_settings.conf");
+		VisualizationEngineParty.HEADLESS = true;
+
+		// A pretend sound card, that just keeps everything written to it
+		AudioFormat format = new AudioFormat(44100, 16, 1, true, false);
+		final ByteArrayOutputStream played = new ByteArrayOutputStream();
+		SourceDataLine line = (SourceDataLine) Proxy.newProxyInstance(SourceDataLine.class.getClassLoader(), new Class<?>[] {SourceDataLine.class}, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] a) {
+				if (method.getName().equals("write")) {
+					played.write((byte[]) a[0], (Integer) a[1], (Integer) a[2]);
+					return a[2];
+				} else if (method.getName().equals("getLongFramePosition")) {
+					return (long) (played.size() / 2);
+				} else if (method.getReturnType() == int.class) {
+					return 0;		// getBufferSize, etc.
+				}
+				return null;
+			}
+		});
+		SoundVisualizer visualizer = new SoundVisualizer(format, line, 0.1, 0.0, CHUNK_FRAMES * 2);
+
+		// Each frame holds (a number made from) its own stream position. The capture starts partway in, and loses
+		// LOST_FRAMES frames halfway through.
+		long start = 3000;
+		long lostFrom = start + 10 * CHUNK_FRAMES;
+		long position = start;
+		byte[] chunk = new byte[CHUNK_FRAMES * 2];
+		for(int i = 0; i < 20; i++) {
+			if (position == lostFrom) {
+				position += LOST_FRAMES;
+			}
+			for(int j = 0; j < CHUNK_FRAMES; j++) {
+				int sample = getSample(position + j);
+				chunk[2*j] = (byte) sample;
+				chunk[2*j + 1] = (byte) (sample >> 8);
+			}
+			visualizer.write(chunk, 0, chunk.length, position);
+			position += CHUNK_FRAMES;
+		}
+
+		// Every frame played should be the one the visuals were timed for
+		byte[] output = played.toByteArray();
+		long offset = visualizer.visuals.audioClockOffset;
+		int checked = 0;
+		for(long p = start; p < position && p + offset < output.length / 2; p++) {
+			int o = (int) (p + offset);
+			int sample = (short) ((output[2*o] & 0xFF) | (output[2*o + 1] << 8));
+			boolean lost = (p >= lostFrom && p < lostFrom + LOST_FRAMES);
+			int expected = (lost ? 0 : getSample(p));
+			if (sample != expected) {
+				fail("Frame " + p + " was played at " + o + " as " + sample + ", not " + expected + ".");
+			}
+			checked++;
+		}
+		if (checked <= (lostFrom - start) + LOST_FRAMES) {
+			fail("Not enough audio came out to check past the overrun.");
+		}
+
+		System.out.println("Passed: " + checked + " frames played in line with the output clock, across a " + LOST_FRAMES + " frame overrun.");
+		System.exit(0);
+	}
+
+	// The engine's threads would keep running, so exit either way
+	private static void fail(String message) {
+		System.out.println("Failed: " + message);
+		System.exit(1);
+	}
+
+	// Never 0 (that's silence)
+	private static int getSample(long position) {
+		return (int) (position % 30000) + 1;
+	}
+
+}
@@ -0,0 +1,158 @@
+package SoundEngine;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import Utils.LatencyHistogram;
+
+/**
+ * Measures every stage of turning audio into lights - decoding the audio, the FFT, each
+ * FeatureDetector, each Visualizer, mixing, each PostProcessor, sending to the lights, and
+ * drawing the GUI - so that when the lights can't keep up during a show, it's easy to see
+ * which plugin is to blame.
+ *
+ * Each stage gets a LatencyHistogram of how long it takes (see getReport for the p50, p99 and
+ * worst times). Along with those, it counts the frames computed, the frames dropped or
+ * replaced before they could be shown, and the overruns: hops whose work took longer than the
+ * hop lasts. Recording never locks or allocates anything, so it can stay on during a show.
+ *
+ * Stages should all be added before anything is recorded (in practice, while the engine is
+ * being set up). Anything can be recorded from any thread.
+ *
+ * @author Steve Levine
+ *
+ */
+public class PipelineProfiler {
+
+	private static final double NANOS_PER_MS = 1000000.0;
+
+	// The stages, in the order they were added
+	private volatile String[] stageNames = new String[0];
+	private volatile LatencyHistogram[] histograms = new LatencyHistogram[0];
+
+	// The whole of each hop's work, and the counters
+	private final LatencyHistogram hopCosts = new LatencyHistogram();
+	private final AtomicLong framesComputed = new AtomicLong();
+	private final AtomicLong framesDropped = new AtomicLong();
+	private final AtomicLong overruns = new AtomicLong();
+	private volatile long startTime = System.nanoTime();
+
+
+	/**
+	 * Add a stage to measure, and return its ID (for recordStage).
+	 */
+	public synchronized int addStage(String name) {
+		int n = stageNames.length;
+		String[] names = new String[n + 1];
+		LatencyHistogram[] stages = new LatencyHistogram[n + 1];
+		System.arraycopy(stageNames, 0, names, 0, n);
+		System.arraycopy(histograms, 0, stages, 0, n);
+		names[n] = name;
+		stages[n] = new LatencyHistogram();
+		histograms = stages;
+		stageNames = names;
+		return n;
+	}
+
+	/**
+	 * Record how long (in nanoseconds) one run of the given stage took.
+	 */
+	public void recordStage(int stage, long nanos) {
+		histograms[stage].record(nanos);
+	}
+
+	/**
+	 * Called once per hop, with how long all of the hop's work took and how long it could have
+	 * taken (both in nanoseconds). Counts an overrun if it took too long.
+	 */
+	public void hopFinished(long costNanos, long budgetNanos) {
+		hopCosts.record(costNanos);
+		framesComputed.incrementAndGet();
+		if (budgetNanos > 0 && costNanos > budgetNanos) {
+			overruns.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Count a frame that was computed but never shown (because it was too late, or a newer one
+	 * replaced it first).
+	 */
+	public void frameDropped() {
+		framesDropped.incrementAndGet();
+	}
+
+
+	public long getFramesComputed() {
+		return framesComputed.get();
+	}
+
+	public long getFramesDropped() {
+		return framesDropped.get();
+	}
+
+	public long getOverruns() {
+		return overruns.get();
+	}
+
+	/**
+	 * Start measuring over from scratch.
+	 */
+	public void reset() {
+		for(LatencyHistogram histogram : histograms) {
+			histogram.reset();
+		}
+		hopCosts.reset();
+		framesComputed.set(0);
+		framesDropped.set(0);
+		overruns.set(0);
+		startTime = System.nanoTime();
+	}
+
+
+	/**
+	 * A table of every stage (and of whole hops), one per line: how many times it ran, and its
+	 * median, p99 and worst times in milliseconds. The first line is the counters.
+	 */
+	public List<String> getReport() {
+		List<String> lines = new ArrayList<String>();
+		lines.add(String.format("%d frames, %d dropped, %d overruns (%.1f%% of hops over budget)",
+				getFramesComputed(), getFramesDropped(), getOverruns(), 100.0 * getOverruns() / Math.max(1, getFramesComputed())));
+		lines.add(String.format("%-32s %10s %9s %9s %9s", "Stage", "Count", "p50 ms", "p99 ms", "Max ms"));
+		lines.add(formatStage("Whole hop", hopCosts));
+		String[] names = stageNames;
+		LatencyHistogram[] stages = histograms;
+		for(int i = 0; i < names.length; i++) {
+			lines.add(formatStage(names[i], stages[i]));
+		}
+		return lines;
+	}
+
+	private static String formatStage(String name, LatencyHistogram histogram) {
+		return String.format("%-32s %10d %9.3f %9.3f %9.3f", name, histogram.getCount(),
+				histogram.getP50() / NANOS_PER_MS, histogram.getP99() / NANOS_PER_MS, histogram.getMax() / NANOS_PER_MS);
+	}
+
+	/**
+	 * Write the report out to the given file (replacing it), i.e. at the end of a show. Only
+	 * prints a warning if it can't.
+	 */
+	public void dump(String filename) {
+		try {
+			PrintWriter out = new PrintWriter(new FileWriter(filename));
+			out.println(String.format("LightDJ pipeline profile, %s (%.0f seconds)", new Date(), (System.nanoTime() - startTime) / 1000000000.0));
+			for(String line : getReport()) {
+				out.println(line);
+			}
+			out.close();
+			System.out.println("Wrote the pipeline profile to " + filename + ".");
+		} catch (IOException e) {
+			System.out.println("Warning: Could not write the pipeline profile to " + filename + "!");
+		}
+	}
+
+}
@@ -0,0 +1,197 @@
+package SoundEngine;
+
+/**
+ * Keeps the visuals from falling behind the audio, by turning the quality down when the work
+ * done every hop doesn't fit in the time a hop lasts, and back up once there's room again.
+ *
+ * After each hop, tell it how long the hop's work took, and how long it had (the hop's length
+ * in time). It keeps a smoothed load - the fraction of the budget being used - and steps down
+ * one quality level whenever the load stays too high for a few hops in a row. Quality only goes
+ * back up after the load has stayed low for a few seconds, and each change is given a moment to
+ * take effect before the next one, so it doesn't flip back and forth.
+ *
+ * What each level actually means is up to whoever uses it - level 0 is full quality, and
+ * higher levels should do less work.
+ *
+ * The cost of each stage of a hop (the FFT's, the visualizers, etc.) is also kept track of,
+ * so that it's easy to see where the time goes.
+ *
+ * Only one thread may call hopFinished(). Each stage should only be recorded by one thread.
+ *
+ * @author Steve Levine
+ *
+ */
+public class QualityGovernor {
+
+	public static final int FULL_QUALITY = 0;
+
+	// Step down when the smoothed load stays above this for STEP_DOWN_HOPS hops in a row. (A single slow
+	// hop, i.e. from garbage collection, isn't worth reacting to.)
+	private static final double STEP_DOWN_LOAD = 0.85;
+	private static final int STEP_DOWN_HOPS = 8;
+
+	// Step back up when the smoothed load has stayed below this for STEP_UP_TIME. If that turns out to be
+	// too much (the quality has to be turned down again within FLAP_TIME), wait twice as long next time,
+	// up to MAX_STEP_UP_TIME.
+	private static final double STEP_UP_LOAD = 0.5;
+	private static final long STEP_UP_TIME = 3000000000L;		// 3 seconds
+	private static final long FLAP_TIME = 10000000000L;			// 10 seconds
+	private static final long MAX_STEP_UP_TIME = 60000000000L;	// 1 minute
+
+	// After a change, wait this long before deciding anything else
+	private static final long SETTLE_TIME = 500000000L;		// 0.5 seconds
+
+	private static final double LOAD_SMOOTHING = 0.1;		// How much each hop moves the smoothed load
+	private static final double COST_SMOOTHING = 0.02;		// How much each hop moves the average cost of a stage
+
+	private final int lowestQuality;
+	private volatile int level = FULL_QUALITY;
+	private volatile double load = 0;
+	private int hopsOverloaded = 0;
+	private long timeWithHeadroom = 0;
+	private long settleTimeLeft = 0;
+	private long stepUpTime = STEP_UP_TIME;
+	private long timeSinceChange = 0;
+	private boolean lastChangeWasUp = false;
+	private volatile long numStepsDown = 0;
+
+	// The stages, and their average and worst costs (in nanoseconds)
+	private String[] stageNames = new String[0];
+	private volatile double[] averageCosts = new double[0];
+	private volatile long[] maxCosts = new long[0];
+
+
+	/**
+	 * Create a governor that can turn the quality down as far as lowestQuality (levels
+	 * 0 ... lowestQuality).
+	 */
+	public QualityGovernor(int lowestQuality) {
+		if (lowestQuality < FULL_QUALITY) {
+			throw new RuntimeException("Error: The lowest quality level can't be below full quality!");
+		}
+		this.lowestQuality = lowestQuality;
+	}
+
+
+	/**
+	 * Add a stage to keep track of the cost of, and return its ID (for recordStage). Stages
+	 * should all be added before anything is recorded.
+	 */
+	public synchronized int addStage(String name) {
+		int n = stageNames.length;
+		String[] names = new String[n + 1];
+		double[] averages = new double[n + 1];
+		long[] maxes = new long[n + 1];
+		System.arraycopy(stageNames, 0, names, 0, n);
+		names[n] = name;
+		stageNames = names;
+		averageCosts = averages;
+		maxCosts = maxes;
+		return n;
+	}
+
+	/**
+	 * Record how long (in nanoseconds) one run of the given stage took.
+	 */
+	public void recordStage(int stage, long nanos) {
+		double[] averages = averageCosts;
+		long[] maxes = maxCosts;
+		averages[stage] += COST_SMOOTHING * (nanos - averages[stage]);
+		if (nanos > maxes[stage]) {
+			maxes[stage] = nanos;
+		}
+	}
+
+
+	/**
+	 * Called once per hop, with how long all of the hop's work took, and how long it could
+	 * have taken (both in nanoseconds). Returns true if the quality level changed.
+	 */
+	public boolean hopFinished(long costNanos, long budgetNanos) {
+		if (budgetNanos <= 0) {
+			return false;		// Not timing anything yet
+		}
+
+		double hopLoad = (double) costNanos / budgetNanos;
+		load += LOAD_SMOOTHING * (hopLoad - load);
+		timeSinceChange += budgetNanos;
+		if (level == FULL_QUALITY && timeSinceChange > MAX_STEP_UP_TIME) {
+			stepUpTime = STEP_UP_TIME;		// It's been fine for a good while
+		}
+
+		// Give the last change a chance to take effect
+		if (settleTimeLeft > 0) {
+			settleTimeLeft -= budgetNanos;
+			return false;
+		}
+
+		// Running behind?
+		hopsOverloaded = (load > STEP_DOWN_LOAD ? hopsOverloaded + 1 : 0);
+		if (level < lowestQuality && hopsOverloaded >= STEP_DOWN_HOPS) {
+			if (lastChangeWasUp && timeSinceChange < FLAP_TIME) {
+				stepUpTime = Math.min(2 * stepUpTime, MAX_STEP_UP_TIME);
+			}
+			level++;
+			numStepsDown++;
+			changedLevel(false);
+			return true;
+		}
+
+		// Plenty of room to spare?
+		timeWithHeadroom = (load < STEP_UP_LOAD ? timeWithHeadroom + budgetNanos : 0);
+		if (level > FULL_QUALITY && timeWithHeadroom >= stepUpTime) {
+			level--;
+			changedLevel(true);
+			return true;
+		}
+
+		return false;
+	}
+
+	private void changedLevel(boolean up) {
+		hopsOverloaded = 0;
+		timeWithHeadroom = 0;
+		settleTimeLeft = SETTLE_TIME;
+		timeSinceChange = 0;
+		lastChangeWasUp = up;
+	}
+
+
+	/**
+	 * The current quality level, between FULL_QUALITY (0) and getLowestQuality(). Higher is
+	 * less work.
+	 */
+	public int getLevel() {
+		return level;
+	}
+
+	public int getLowestQuality() {
+		return lowestQuality;
+	}
+
+	/**
+	 * The smoothed fraction of each hop's time that its work has been taking.
+	 */
+	public double getLoad() {
+		return load;
+	}
+
+	/**
+	 * How many times the quality has had to be turned down.
+	 */
+	public long getNumStepsDown() {
+		return numStepsDown;
+	}
+
+	public String getReport() {
+		StringBuilder report = new StringBuilder(String.format("Quality level %d of %d, load %.0f%%, turned down %d times", getLevel(), getLowestQuality(), 100 * getLoad(), getNumStepsDown()));
+		String[] names = stageNames;
+		double[] averages = averageCosts;
+		long[] maxes = maxCosts;
+		for(int i = 0; i < names.length; i++) {
+			report.append(String.format("; %s %.3f ms average, %.3f ms worst", names[i], averages[i] / 1000000.0, maxes[i] / 1000000.0));
+		}
+		return report.toString();
+	}
+
+}
@@ -0,0 +1,27 @@
+package SoundEngine;
+
+/**
+ * Converts raw audio samples of one particular format (i.e., 24 bit big endian) into doubles
+ * between -1 and 1. Each format gets its own implementation, with its own tight loop, so that
+ * nothing about the format has to be checked sample by sample. PCMDecoder picks the right one
+ * for an AudioFormat.
+ * 
+ * Implementations hold no state between calls, so a single instance may be shared between threads.
+ * 
+ * @author Steve Levine
+ *
+ */
+public interface SampleDecoder {
+	
+	/**
+	 * How many bytes each sample takes up.
+	 */
+	public int getBytesPerSample();
+	
+	/**
+	 * Decode numSamples samples, starting at data[offset], into out[0] ... out[numSamples - 1].
+	 * Multi-channel audio is left interleaved.
+	 */
+	public void decode(byte[] data, int offset, int numSamples, double[] out);
+	
+}
@@ -8,7 +8,6 @@ import javax.sound.sampled.*;
 
 import SignalGUI.GUIVisualizer;
 import SignalGUI.GraphDisplay;
-import Utils.TimerTicToc;
 
 /**
  * Maintains the audio and visuals, especially the sync.
@@ -32,25 +31,48 @@ public class SoundVisualizer {
 	byte[] audioBuffer;
 	int bufferReadPointer;
 	int bufferWritePointer;
+	byte[] silence;		// Played in place of any audio that was lost (see write)
 	
 	// A visualization engine
 	VisualizationEngine visuals;
 	
+	// The sound card clocks, for timing the visuals (the output one is only used with pass through)
+	AudioClock captureClock;
+	AudioClock outputClock;
+	int audioFramesToDelay = 0;
+	int frameSize;
+	boolean clockConnected = false;
+	long nextFramePosition = 0;
+	
+	// If enabled, the visuals get the audio on their own thread, handed over through a lock-free queue,
+	// so that the thread capturing the audio never has to wait for them.
+	static protected boolean USE_ANALYSIS_THREAD = true;
+	private static final int ANALYSIS_QUEUE_SLOTS = 32;
+	PCMChunkQueue analysisQueue;
+	Thread analysisThread;
+	long overrunsReported = 0;
+	
 	public SoundVisualizer(AudioFormat format, boolean passThruToAudio, double initialAudioDelay, double initialVideoDelay, int maxBufferWriteSize) {
 		
 		// Set up audio and video
-		initAudioAndVideo(format, initialAudioDelay, initialVideoDelay, passThruToAudio, maxBufferWriteSize);
+		initAudioAndVideo(format, initialAudioDelay, initialVideoDelay, passThruToAudio, maxBufferWriteSize, null);
 		
 	}
 	
+	// Pass the audio through to the given line (already open), rather than to the sound card's. For testing.
+	SoundVisualizer(AudioFormat format, SourceDataLine line, double initialAudioDelay, double initialVideoDelay, int maxBufferWriteSize) {
+		initAudioAndVideo(format, initialAudioDelay, initialVideoDelay, true, maxBufferWriteSize, line);
+	}
+	
 	// Sets up audio
-	private void initAudioAndVideo(AudioFormat format, double initialAudioDelaySec, double initialVideoDelaySec, boolean passThruToAudio, int maxBufferWriteSize) {
+	private void initAudioAndVideo(AudioFormat format, double initialAudioDelaySec, double initialVideoDelaySec, boolean passThruToAudio, int maxBufferWriteSize, SourceDataLine line) {
 		
 		passThru = passThruToAudio;
+		frameSize = format.getFrameSize();
 		
 		if (passThru) {
 			int audioFrameSize = format.getFrameSize();
-			int audioFramesToDelay = (int) (initialAudioDelaySec * format.getFrameRate());
+			audioFramesToDelay = (int) (initialAudioDelaySec * format.getFrameRate());
 			
 			try {
 				
@@ -60,9 +82,14 @@ public class SoundVisualizer {
 				bufferReadPointer = 0;	// Start sending data to the hardware buffer at 0
 				bufferWritePointer = audioFramesToDelay * audioFrameSize;	// Start writing immediately after the silence
 				
+				silence = createSilence(format, maxBufferWriteSize / audioFrameSize);
+				
 				// Open a hardware audio buffer to output sound
-				outputLine = AudioSystem.getSourceDataLine(format);
-				outputLine.open(format, SOUNDCARD_BUFFER_SIZE);
+				outputLine = line;
+				if (outputLine == null) {
+					outputLine = AudioSystem.getSourceDataLine(format);
+					outputLine.open(format, SOUNDCARD_BUFFER_SIZE);
+				}
 				
 				System.out.println("Hardware buffer size: " + outputLine.getBufferSize());
 				System.out.println("Audio buffer size: " + AUDIO_BUFFER_SIZE);
@@ -83,14 +110,51 @@ public class SoundVisualizer {
 			
 		}
 		audioWorking = true;
+		captureClock = new AudioClock(format.getFrameRate());
+		if (passThru) {
+			outputClock = new AudioClock(format.getFrameRate());
+		}
 		
 		// Set up video
 		// Set up a visualization engine
 		visuals = new VisualizationEngineParty(format, initialVideoDelaySec);
 		//visuals = new VisualizationEngineAC(format, initialVideoDelaySec);
+		
+		if (USE_ANALYSIS_THREAD) {
+			analysisQueue = new PCMChunkQueue(ANALYSIS_QUEUE_SLOTS, maxBufferWriteSize, format.getFrameSize());
+			analysisThread = new Thread(new Runnable() {
+				public void run() {
+					runAnalysis();
+				}
+			}, "Audio analysis");
+			analysisThread.setDaemon(true);
+		}
 
 	}
 	
+	// The given number of frames of silence in the given format: all zeros, or for unsigned samples, the middle value
+	private static byte[] createSilence(AudioFormat format, int numFrames) {
+		byte[] silence = new byte[numFrames * format.getFrameSize()];
+		if (format.getEncoding() == AudioFormat.Encoding.PCM_UNSIGNED) {
+			int bytesPerSample = format.getFrameSize() / format.getChannels();
+			int mostSignificantByte = (format.isBigEndian() ? 0 : bytesPerSample - 1);
+			for(int i = mostSignificantByte; i < silence.length; i += bytesPerSample) {
+				silence[i] = (byte) 0x80;
+			}
+		}
+		return silence;
+	}
+	
+	/**
+	 * Hold each frame of the visuals until its audio is played, rather than showing it as soon as
+	 * it's computed (see VisualizationEngine.setLookahead). Only makes sense when passing the
+	 * audio through, delayed by the initial audio delay - that's how far ahead the visuals get it.
+	 * Must be called before start().
+	 */
+	public void setLookahead(boolean lookahead) {
+		visuals.setLookahead(lookahead);
+	}
+	
 	public void start(double startupDelay) {
 		if (passThru) {
 			outputLine.start();
@@ -98,40 +162,118 @@ public class SoundVisualizer {
 			//outputLine.write(silence, 0, silence.length);
 		}
 		visuals.start(startupDelay);
+		if (analysisThread != null) {
+			analysisThread.start();
+		}
 	}
 	
-	// Write bytes into the buffer
-	public void write(byte[] data, int offset, int length) {
-		// Pass through to the audio buffer and to the visuals		
-		if (passThru) {
-			
-			// Add this data to the audio buffer
-			for(int i = offset; i < offset + length; i++) {
-				audioBuffer[bufferWritePointer] = data[i];
-				bufferWritePointer = (bufferWritePointer + 1) % AUDIO_BUFFER_SIZE;
+	// The analysis thread: feed each chunk of audio to the visuals as it comes in
+	private void runAnalysis() {
+		byte[] chunk = new byte[analysisQueue.getSlotSize()];
+		while(true) {
+			int length = analysisQueue.take(chunk);
+			if (length < 0) {
+				return;
 			}
-
+			visuals.write(chunk, 0, length, analysisQueue.getTakenPosition());
 			
-			// Write proper data to the hardware buffer
-			if (bufferReadPointer + length <= AUDIO_BUFFER_SIZE) {
-				outputLine.write(audioBuffer, bufferReadPointer, length);
+			// Let people know if the visuals can't keep up
+			long overruns = analysisQueue.getOverruns();
+			if (overruns != overrunsReported) {
+				System.out.println("Warning: Audio analysis fell behind, and " + (overruns - overrunsReported) + " chunk(s) of audio were skipped (" + overruns + " total).");
+				overrunsReported = overruns;
+			}
+		}
+	}
+	
+	/**
+	 * The clock of the sound card that the audio is being captured from. Whoever is reading from
+	 * it should update this every so often with the line's getLongFramePosition(). Frame
+	 * positions given to write() are in the same terms.
+	 */
+	public AudioClock getCaptureClock() {
+		return captureClock;
+	}
+	
+	/**
+	 * The queue feeding the analysis thread (for its overrun counters), or null if the visuals
+	 * are run right on the capture thread.
+	 */
+	public PCMChunkQueue getAnalysisQueue() {
+		return analysisQueue;
+	}
+	
+	// Write bytes into the buffer, right after the last ones
+	public void write(byte[] data, int offset, int length) {
+		write(data, offset, length, nextFramePosition);
+	}
+	
+	// Write bytes into the buffer. framePosition is where the first frame of data is in the stream
+	// (counting any audio that was read and thrown away, so that it matches the capture clock).
+	public void write(byte[] data, int offset, int length, long framePosition) {
+		// If audio was lost since the last write (i.e., the capture overran), play silence in its place. Otherwise the
+		// rest would be played that much earlier than the output clock (which is only lined up once, below) says.
+		if (passThru && clockConnected && framePosition > nextFramePosition) {
+			playSilence(framePosition - nextFramePosition);
+		}
+		nextFramePosition = framePosition + length / frameSize;
+		
+		// Time the visuals by the sound card: the output, if we're playing the audio, or otherwise the input.
+		// The first frame written here is the first one played after the initial silence.
+		if (!clockConnected) {
+			if (passThru) {
+				visuals.setAudioClock(outputClock, audioFramesToDelay - framePosition);
 			} else {
-				outputLine.write(audioBuffer, bufferReadPointer, AUDIO_BUFFER_SIZE - bufferReadPointer);
-				outputLine.write(audioBuffer, 0, length - (AUDIO_BUFFER_SIZE - bufferReadPointer));
-				
+				visuals.setAudioClock(captureClock, 0);
 			}
-			bufferReadPointer = (bufferReadPointer + length) % AUDIO_BUFFER_SIZE;
+			clockConnected = true;
 		}
 		
-		// Write the audio to the visualizer!
-		visuals.write(data, offset, length);
+		// Pass through to the audio buffer and to the visuals		
+		if (passThru) {
+			playThrough(data, offset, length);
+			outputClock.update(outputLine.getLongFramePosition(), System.nanoTime());
+		}
+		
+		// Write the audio to the visualizer! (Or hand it to the analysis thread to do, without waiting.)
+		if (analysisQueue != null) {
+			analysisQueue.offer(data, offset, length, framePosition);
+		} else {
+			visuals.write(data, offset, length, framePosition);
+		}
+	
+	}
+	
+	// Add this data to the audio buffer, and send what's been delayed long enough on to the hardware buffer
+	private void playThrough(byte[] data, int offset, int length) {
 		
-		TimerTicToc t = new TimerTicToc();
+		// Add this data to the audio buffer
+		for(int i = offset; i < offset + length; i++) {
+			audioBuffer[bufferWritePointer] = data[i];
+			bufferWritePointer = (bufferWritePointer + 1) % AUDIO_BUFFER_SIZE;
+		}
 
 		
-	
+		// Write proper data to the hardware buffer
+		if (bufferReadPointer + length <= AUDIO_BUFFER_SIZE) {
+			outputLine.write(audioBuffer, bufferReadPointer, length);
+		} else {
+			outputLine.write(audioBuffer, bufferReadPointer, AUDIO_BUFFER_SIZE - bufferReadPointer);
+			outputLine.write(audioBuffer, 0, length - (AUDIO_BUFFER_SIZE - bufferReadPointer));
+			
+		}
+		bufferReadPointer = (bufferReadPointer + length) % AUDIO_BUFFER_SIZE;
 	}
 	
+	// Play the given number of frames of silence (a chunk at a time, so they fit in the audio buffer)
+	private void playSilence(long numFrames) {
+		long bytesLeft = numFrames * frameSize;
+		while(bytesLeft > 0) {
+			int length = (int) Math.min(bytesLeft, silence.length);
+			playThrough(silence, 0, length);
+			bytesLeft -= length;
+		}
+	}
 	
 }
 
@@ -1,13 +1,24 @@
 package SoundEngine;
 
-import java.security.acl.LastOwnerException;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.sound.sampled.AudioFormat;
 
+import FeatureDetectors.FeatureDetector;
+import Signals.BandAnalyzer;
+import Signals.BiquadCascade;
 import Signals.FFT;
 import Signals.FFTEngine;
+import Signals.FFTRegistry;
+import Signals.MultiResolutionAnalyzer;
+import Signals.SampleRing;
+import Signals.SlidingSpectrum;
+import Signals.Window;
 
 /**
  * An abstract class representing the visuals to be synchronized for music. Takes care of
@@ -18,167 +29,730 @@ import Signals.FFTEngine;
  */
 public abstract class VisualizationEngine {
 	
-	// Audio buffers
-	static protected final int BUFFER_SIZE = 2048; //256
-	static protected final int BUFFER_OVERLAP = 4; // 1  // Must be a power of 2
-	protected double[][] buffers;
-	protected int[] bufferCursors;
-	protected double[] window;
+	// Audio buffers. Set from the config file (FFT_SIZE and FFT_OVERLAP); each engine starts out with these.
+	static protected int BUFFER_SIZE = 2048; //256	// Must be a power of 2
+	static protected int BUFFER_OVERLAP = 4; // 1  // Must be a power of 2
+	
+	// The FFT size and overlap this engine is using right now. Changed on the fly (by reconfigure(), or the governor)
+	// by the thread writing the audio, and read from others (i.e. the control server's), so they're volatile.
+	protected volatile int bufferSize;
+	protected volatile int bufferOverlap;
+	protected Window window;
+	
+	// The FFT size that the FeatureDetectors' thresholds were tuned at. Spectra at any other size are
+	// scaled to match it, so a steady tone comes out just as loud whatever the FFT size is.
+	static protected final int REFERENCE_FFT_SIZE = 2048;
+	protected double spectrumScale = 1.0;
+	
+	// A change of FFT size and overlap asked for by reconfigure(), waiting to be made between hops
+	private final AtomicReference<int[]> pendingReconfiguration = new AtomicReference<int[]>(null);
+	
+	// Turns the quality down when the work done each hop doesn't fit in a hop (see QualityGovernor). The subclass
+	// decides what its levels mean (see getNumQualityLevels); one more level below those halves the overlap.
+	static protected boolean USE_QUALITY_GOVERNOR = true;
+	protected QualityGovernor governor;
+	private int analysisStage;
+	private int visualsStage;
+	private int renderStage;
+	private int fullQualityOverlap;			// The overlap asked for - the governor may be using less
+	private volatile long lastRenderCost = 0;
+	
+	// Measures every stage of the pipeline, for finding whatever is blowing the budget (see PipelineProfiler).
+	// The subclass adds stages for its own plugins. Written out to PROFILE_DUMP_FILE (if set) at shutdown.
+	static protected boolean PROFILE_PIPELINE = true;
+	static protected String PROFILE_DUMP_FILE = null;
+	protected PipelineProfiler profiler;
+	private int decodeProfileStage;
+	private int fftProfileStage;
+	private int renderProfileStage;
+	
+	// Every sample goes into one ring, once. Every hop, the newest frame is windowed straight out of it into the FFT
+	protected SampleRing sampleRing;
+	protected int hopSize;
+	protected int hopCursor;
+	
+	// Alternatively, update the spectrum one hop at a time from only the newest samples
+	static protected boolean USE_SLIDING_SPECTRUM = false;
+	protected SlidingSpectrum slidingSpectrum;
+	protected double[] hopBuffer;
+	
+	// Or, if only a few narrow bands are needed, compute just those bins (picked automatically)
+	static protected boolean USE_BAND_ANALYSIS = true;
+	protected BandAnalyzer bandAnalyzer;
+	
+	// Spectra at any other FFT sizes that the FeatureDetectors ask for, computed in parallel
+	static protected boolean USE_MULTI_RESOLUTION = true;
+	protected MultiResolutionAnalyzer multiResolution;
+	
+	// Optional pre-filtering of the samples as they come in (one filter per stream)
+	static protected boolean REMOVE_DC_OFFSET = true;
+	protected BiquadCascade[] dcBlockers;
+	
+	// Decodes the raw audio into one or more streams (see PCMDecoder.ChannelMode). Stream 0 gets the full
+	// analysis above; each other stream gets a regular spectrum of its own, computed in parallel.
+	static protected PCMDecoder.ChannelMode CHANNEL_MODE = PCMDecoder.ChannelMode.LEFT;
+	protected PCMDecoder decoder;
+	protected double[][] streams;
+	protected SampleRing[] extraStreamRings;
+	protected MultiResolutionAnalyzer[] extraStreamAnalyzers;
 	
 	// Audio format information
 	protected final int FRAME_SIZE;
-	protected final int BYTES_PER_SAMPLE;
-	protected final long MAX_SAMPLE_VAL;
 	protected final int SAMPLE_RATE;
-	protected final boolean INSTANT_PLAY = true;
 	
-	// A rendering thread and timing queue to ensure that the visuals are rendered at the proper time as the audio
+	// Lookahead (see setLookahead): frames are computed well before their audio is played, and held until then.
+	// Otherwise, each frame is rendered as soon as it's computed.
+	protected boolean lookahead = false;
+	
+	// A rendering thread and timing queue to ensure that the visuals are rendered at the proper time as the audio.
+	// Frames are handed over without any locks: in instant play mode through a single slot holding just the
+	// latest frame, and otherwise through a lock-free queue. The queue must stay in timestamp order, but a bigger FFT
+	// with lookahead can step timestamps back, so visualize() moves any such frame up to the last one queued. That's
+	// forgotten in start(), and whenever the clock resyncs (see checkForResync), since then time really has gone back.
 	protected VisualizationEngineRenderThread renderTimingThread;
 	protected Queue<RenderFrame> timeQueue;
+	private long lastQueuedTimestamp = Long.MIN_VALUE;		// Only used by the thread writing the audio
+	private AudioClock lastClock = null;			// The clock (and how many times it had resynced) that it was timed by
+	private long lastNumResyncs = 0;
+	protected AtomicReference<RenderFrame> latestFrame;
 	protected long frameWidth;
 	protected long startTime;
 	protected int numBuffersRendered = 0;
 	protected long videoDelayOffset;
 	
-	// The FFT engine
+	// The sound card clock that frame timestamps are read from, if there is one (see setAudioClock). Otherwise,
+	// timestamps are just counted up from startTime, assuming the sound card runs at exactly SAMPLE_RATE.
+	protected volatile AudioClock audioClock = null;
+	protected volatile long audioClockOffset = 0;
+	protected long nextFramePosition = 0;		// The stream position of the next frame to be written
+	static protected boolean REPORT_RENDER_TIMING = false;	// Print out how promptly frames get rendered every so often
+	
+	// Render offline (see OfflineRenderer): as fast as the audio can be written in, rather than in time with it.
+	// Each frame is rendered right away on the thread writing the audio (so none are ever dropped), always at full
+	// quality, and timestamped by its position in the audio, counting from the start.
+	static protected boolean RENDER_OFFLINE = false;
+	
+	// The FFT engine, and a reusable output buffer (and wrapper) for it so that no memory is allocated per hop
 	FFTEngine fftEngine;
+	protected double[] fftBuffer;
+	protected FFT fft;
 	
 	public VisualizationEngine(AudioFormat format, double videoDelaySec) {
 		
-		// Remember stuff about the audio format
-		// For simplicity for now, only support 16 bit samples
-		if (format.getSampleSizeInBits() != 16) {
-			System.out.println("Error: I currently only support 16 bit linear PCM audio data!");
-			throw new RuntimeException("I only support 16 bit linear PCM audio data!");	
-		} else if (format.isBigEndian()){
-			System.out.println("Error: I don't feel like supporting big endian!");
-			throw new RuntimeException("I don't feel like supporting big endian!");
-		} else {
-			// Okay
-			BYTES_PER_SAMPLE = 2;
-			FRAME_SIZE = format.getFrameSize();
-			MAX_SAMPLE_VAL = (long) Math.pow(2, 8*BYTES_PER_SAMPLE - 1);
-			SAMPLE_RATE = (int) format.getSampleRate();
-			
-		}
+		// Remember stuff about the audio format. The decoder checks that it's one we can handle.
+		decoder = new PCMDecoder(format, CHANNEL_MODE);
+		FRAME_SIZE = format.getFrameSize();
+		SAMPLE_RATE = (int) format.getSampleRate();
+		
+		// Decide which streams to analyze
+		int numStreams = decoder.getNumStreams();
+		streams = new double[numStreams][0];
 		
-		// Set up sample buffers
-		buffers = new double[BUFFER_OVERLAP][BUFFER_SIZE];
-		bufferCursors = new int[BUFFER_OVERLAP];
-		for(int i = 0; i < BUFFER_OVERLAP; i++) {
-			bufferCursors[i] = i*(BUFFER_SIZE/BUFFER_OVERLAP);
+		// Some sound cards add a constant offset to everything, which would otherwise show up as bass
+		if (REMOVE_DC_OFFSET) {
+			dcBlockers = new BiquadCascade[numStreams];
+			for(int i = 0; i < numStreams; i++) {
+				dcBlockers[i] = BiquadCascade.createDCBlocker(SAMPLE_RATE, 5.0);
+			}
 		}
-		createHannWindow();
 		
-		// Start the FFT engine
-		fftEngine = new FFTEngine(BUFFER_SIZE, SAMPLE_RATE);
+		// Get the (shared) FFT engine and window
+		checkAnalysisSize(BUFFER_SIZE, BUFFER_OVERLAP);
+		bufferSize = BUFFER_SIZE;
+		bufferOverlap = BUFFER_OVERLAP;
+		setUpFFT();
+		fullQualityOverlap = bufferOverlap;
+		
+		// Keep track of how long everything takes (the subclass may add stages of its own)
+		if (USE_QUALITY_GOVERNOR && !RENDER_OFFLINE) {
+			governor = new QualityGovernor(getNumQualityLevels() + 1);
+			analysisStage = governor.addStage("Spectrum analysis");
+			visualsStage = governor.addStage("Visuals");
+			renderStage = governor.addStage("Rendering");
+		}
+		if (PROFILE_PIPELINE) {
+			profiler = new PipelineProfiler();
+			decodeProfileStage = profiler.addStage("PCM decode");
+			fftProfileStage = profiler.addStage("FFT");
+		}
 		
 		// Load up the visualizations
 		initVisualizations();	// Done by the subclass
+		if (profiler != null) {
+			renderProfileStage = profiler.addStage("Rendering (all)");
+		}
+		
+		// Now that we know what the visualizations need, set up the sample buffers
+		setUpSpectrumAnalysis();
 		
 		// Set up timing and rendering
 		videoDelayOffset = (long) (1000000000 * videoDelaySec);
-		timeQueue = new LinkedList<RenderFrame>();
-		renderTimingThread = new VisualizationEngineRenderThread(this, timeQueue, INSTANT_PLAY);
+		timeQueue = new ConcurrentLinkedQueue<RenderFrame>();
+		latestFrame = new AtomicReference<RenderFrame>(null);
+		renderTimingThread = new VisualizationEngineRenderThread(this, timeQueue, latestFrame, !lookahead);
+		
+	}
+	
+	/**
+	 * Throws an error unless the given FFT size and overlap can be used: both must be powers of 2,
+	 * and each hop must be at least 32 samples.
+	 */
+	public static void checkAnalysisSize(int fftSize, int overlap) {
+		if (fftSize < 64 || fftSize > 65536 || Integer.bitCount(fftSize) != 1) {
+			throw new RuntimeException("Error: The FFT size must be a power of 2 between 64 and 65536, not " + fftSize + "!");
+		} else if (overlap < 1 || Integer.bitCount(overlap) != 1 || fftSize / overlap < 32) {
+			throw new RuntimeException("Error: The FFT overlap must be a power of 2, and leave at least 32 samples per hop (not " + overlap + ")!");
+		}
+	}
+	
+	// Get the (shared) FFT engine and window for the current FFT size, and a spectrum to compute into
+	private void setUpFFT() {
+		window = FFTRegistry.getWindow(Window.Type.HANN, bufferSize);
+		fftEngine = FFTRegistry.getEngine(bufferSize, SAMPLE_RATE);
+		fftBuffer = new double[bufferSize + 2];
+		fft = new FFT(fftBuffer, bufferSize / 2 + 1, SAMPLE_RATE, bufferSize);
+		spectrumScale = (double) REFERENCE_FFT_SIZE / bufferSize;
+	}
+	
+	// Decide how to compute the spectrum each hop, and set up the sample buffers for it.
+	private void setUpSpectrumAnalysis() {
+		
+		hopSize = bufferSize / bufferOverlap;
+		slidingSpectrum = null;
+		bandAnalyzer = null;
+		hopBuffer = null;
+		multiResolution = null;
+		int[] bins = null;
+		if (!USE_SLIDING_SPECTRUM && USE_BAND_ANALYSIS) {
+			bins = getNeededBins();
+		}
+		
+		if (USE_SLIDING_SPECTRUM) {
+			// Only the newest hop of samples needs to be kept
+			slidingSpectrum = new SlidingSpectrum(bufferSize, hopSize, SAMPLE_RATE, Window.Type.HANN);
+			hopBuffer = new double[hopSize];
+		} else if (bins != null && bins.length <= BandAnalyzer.MAX_BINS) {
+			// Cheaper to just compute the few bins that are needed
+			bandAnalyzer = new BandAnalyzer(bufferSize, bufferOverlap, SAMPLE_RATE, window, bins);
+			hopBuffer = new double[hopSize];
+			System.out.println("Only computing " + bins.length + " FFT bins, since that's all the visualizations need.");
+		}
+		hopCursor = 0;
+		
+		// Work out which other resolutions the FeatureDetectors would like, so the ring can be made big enough
+		int[] fftSizes = new int[0];
+		if (USE_MULTI_RESOLUTION && bandAnalyzer == null) {
+			fftSizes = getOtherFFTSizes();
+		}
+		
+		int ringSize = (hopBuffer == null ? bufferSize : hopSize);
+		for(int size : fftSizes) {
+			ringSize = Math.max(ringSize, size);
+		}
+		sampleRing = new SampleRing(ringSize);
+		
+		// Compute spectra at any other resolutions the FeatureDetectors would like
+		if (fftSizes.length > 0) {
+			multiResolution = new MultiResolutionAnalyzer(fftSizes, SAMPLE_RATE, Window.Type.HANN, REFERENCE_FFT_SIZE, sampleRing);
+		}
+		
+		// Each extra stream (i.e., the side signal, or the right channel) gets a regular spectrum on its own core
+		int numExtraStreams = decoder.getNumStreams() - 1;
+		extraStreamRings = new SampleRing[numExtraStreams];
+		extraStreamAnalyzers = new MultiResolutionAnalyzer[numExtraStreams];
+		for(int i = 0; i < numExtraStreams; i++) {
+			extraStreamRings[i] = new SampleRing(bufferSize);
+			extraStreamAnalyzers[i] = new MultiResolutionAnalyzer(new int[] {bufferSize}, SAMPLE_RATE, Window.Type.HANN, REFERENCE_FFT_SIZE, extraStreamRings[i]);
+		}
 		
 	}
 	
+	// Work out which FFT bins the active FeatureDetectors read, or null if that isn't known
+	// (or if they might read any of them).
+	private int[] getNeededBins() {
+		List<FeatureDetector> detectors = getActiveFeatureDetectors();
+		if (detectors == null) {
+			return null;
+		}
+		
+		List<double[]> bands = new LinkedList<double[]>();
+		for(FeatureDetector detector : detectors) {
+			List<double[]> detectorBands = detector.getFrequencyBands();
+			if (detectorBands == null) {
+				return null;
+			}
+			bands.addAll(detectorBands);
+		}
+		return BandAnalyzer.getBinsForBands(bufferSize, SAMPLE_RATE, bands);
+	}
+	
+	// Work out which FFT sizes, other than the current one, the active FeatureDetectors would like.
+	private int[] getOtherFFTSizes() {
+		List<FeatureDetector> detectors = getActiveFeatureDetectors();
+		List<Integer> sizes = new LinkedList<Integer>();
+		if (detectors != null) {
+			for(FeatureDetector detector : detectors) {
+				int size = detector.getPreferredFFTSize();
+				if (size != 0 && size != bufferSize && !sizes.contains(size)) {
+					sizes.add(size);
+				}
+			}
+		}
+		
+		int[] fftSizes = new int[sizes.size()];
+		for(int i = 0; i < fftSizes.length; i++) {
+			fftSizes[i] = sizes.get(i);
+		}
+		return fftSizes;
+	}
+	
+	/**
+	 * Change the FFT size and overlap on the fly, without stopping the audio. This only asks for
+	 * the change (so it may be called from any thread, i.e. the GUI's); it's actually made by the
+	 * thread writing the audio in, just before the next block is analyzed. The buffers, FFT's and
+	 * analyzers are all rebuilt, and the visualizations are told the new timing (see
+	 * analysisTimingChanged). Throws an error right away if the sizes can't be used.
+	 */
+	public void reconfigure(int fftSize, int overlap) {
+		checkAnalysisSize(fftSize, overlap);
+		pendingReconfiguration.set(new int[] {fftSize, overlap});
+	}
+	
+	// Rebuild everything that depends on the FFT size and overlap. Must be called between hops, by the thread writing the audio.
+	private void rebuildAnalysis(int fftSize, int overlap) {
+		if (fftSize == bufferSize && overlap == bufferOverlap) {
+			return;
+		}
+		
+		// Hang on to the newest audio, so the new spectrum doesn't have to start over from silence
+		SampleRing oldRing = sampleRing;
+		SampleRing[] oldExtraStreamRings = extraStreamRings;
+		
+		// Stop the old analyzers' worker threads
+		if (multiResolution != null) {
+			multiResolution.shutDown();
+		}
+		for(MultiResolutionAnalyzer analyzer : extraStreamAnalyzers) {
+			analyzer.shutDown();
+		}
+		
+		// Frames without a sound card clock are timed by counting hops, so count the new (different width) ones from here
+		startTime += numBuffersRendered * frameWidth;
+		numBuffersRendered = 0;
+		
+		bufferSize = fftSize;
+		bufferOverlap = overlap;
+		setUpFFT();
+		frameWidth = computeFrameWidth();
+		
+		// Let the visualizations know first, since what they'll need from the spectrum might depend on it
+		analysisTimingChanged(bufferSize, getUpdatesPerSecond());
+		setUpSpectrumAnalysis();
+		copyNewestSamples(oldRing, sampleRing);
+		for(int i = 0; i < extraStreamRings.length; i++) {
+			copyNewestSamples(oldExtraStreamRings[i], extraStreamRings[i]);
+		}
+		
+		System.out.println("Now using a " + bufferSize + " point FFT, " + bufferOverlap + "x overlapped (" + String.format("%.1f", getUpdatesPerSecond()) + " updates per second).");
+	}
+	
+	private static void copyNewestSamples(SampleRing from, SampleRing to) {
+		int n = Math.min(from.getCapacity(), to.getCapacity());
+		double[] samples = new double[n];
+		from.readFrame(samples, n);
+		to.addBlock(samples, 0, n);
+	}
+	
+	private long computeFrameWidth() {
+		return (long) ((1.0 * bufferSize / SAMPLE_RATE / bufferOverlap) * 1000000000.0);
+	}
+	
+	/**
+	 * How many times a second the spectrum is updated (and the visuals computed).
+	 */
+	public double getUpdatesPerSecond() {
+		return (double) SAMPLE_RATE / bufferSize * bufferOverlap;
+	}
+	
+	/**
+	 * The FFT size this engine is using right now (which reconfigure() may have changed since
+	 * it started).
+	 */
+	public int getFFTSize() {
+		return bufferSize;
+	}
+	
+	/**
+	 * The FFT overlap this engine is using right now (the governor may have halved it).
+	 */
+	public int getFFTOverlap() {
+		return bufferOverlap;
+	}
+	
+	/**
+	 * How many levels of lower quality the subclass has (see getQualityLevel). Each one should do
+	 * noticeably less work than the one before. Returns 0 by default.
+	 */
+	protected int getNumQualityLevels() {
+		return 0;
+	}
+	
+	/**
+	 * The quality level the visualizations should compute at right now: 0 for full quality, up
+	 * to getNumQualityLevels() (or one more, when the overlap has been halved as well).
+	 */
+	protected int getQualityLevel() {
+		return (governor == null ? QualityGovernor.FULL_QUALITY : governor.getLevel());
+	}
+	
+	/**
+	 * How the quality governor is doing, and what each stage costs.
+	 */
+	public String getQualityReport() {
+		return (governor == null ? "Quality governor is off" : governor.getReport());
+	}
+	
+	// The overlap to use at the current quality level
+	private int getOverlapForQuality() {
+		if (getQualityLevel() > getNumQualityLevels()) {
+			return Math.max(1, fullQualityOverlap / 2);
+		}
+		return fullQualityOverlap;
+	}
+	
+	// Let the governor know how long this hop took (and the latest rendering, which has to keep up too)
+	private void governHop(long start, long analyzed, long done) {
+		governor.recordStage(analysisStage, analyzed - start);
+		governor.recordStage(visualsStage, done - analyzed);
+		int oldLevel = governor.getLevel();
+		if (governor.hopFinished(done - start + lastRenderCost, frameWidth)) {
+			int level = governor.getLevel();
+			if (level > oldLevel) {
+				System.out.println(String.format("Warning: The visuals can't keep up (%.0f%% load) - turning the quality down to level %d.", 100 * governor.getLoad(), level));
+			} else {
+				System.out.println("Quality back up to level " + level + ".");
+			}
+		}
+	}
+	
+	// Called by the render thread with how long each rendering took
+	void renderFinished(long nanos) {
+		lastRenderCost = nanos;
+		if (governor != null) {
+			governor.recordStage(renderStage, nanos);
+		}
+		if (profiler != null) {
+			profiler.recordStage(renderProfileStage, nanos);
+		}
+	}
+	
+	// Called by the render thread when a frame is dropped for being too late
+	void frameDropped() {
+		if (profiler != null) {
+			profiler.frameDropped();
+		}
+	}
+	
+	/**
+	 * What every stage of the pipeline costs, or null if PROFILE_PIPELINE is off.
+	 */
+	public PipelineProfiler getPipelineProfiler() {
+		return profiler;
+	}
+	
+	/**
+	 * Called by reconfigure() once the FFT size or overlap have changed, on the thread writing the
+	 * audio, before the next hop. The subclass should pass the new timing on to its visualizations
+	 * (i.e., with FeatureDetector.setTiming). Anything run by renderVisuals() is on the rendering
+	 * thread instead, so should be handed the new timing there. Does nothing by default.
+	 */
+	protected void analysisTimingChanged(int fftSize, double updatesPerSecond) {}
+	
+	/**
+	 * Returns the spectrum that the given FeatureDetector should use for the current hop, at its
+	 * preferred FFT size if that's being computed, or else the regular one.
+	 */
+	protected FFT getFFTFor(FeatureDetector detector) {
+		if (multiResolution != null) {
+			FFT detectorFFT = multiResolution.getFFT(detector.getPreferredFFTSize());
+			if (detectorFFT != null) {
+				return detectorFFT;
+			}
+		}
+		return fft;
+	}
+	
+	/**
+	 * A summary of how promptly the render thread has been rendering frames.
+	 */
+	public String getRenderSchedulingReport() {
+		return renderTimingThread.getSchedulingReport();
+	}
+	
+	/**
+	 * How many streams of audio are analyzed (see CHANNEL_MODE).
+	 */
+	protected int getNumStreams() {
+		return decoder.getNumStreams();
+	}
+	
+	/**
+	 * Returns the regular spectrum of the given stream for the current hop. Stream 0 is the
+	 * main one (the same as fft); for MID_SIDE, stream 1 is the side signal, and for PER_CHANNEL,
+	 * stream i is channel i.
+	 */
+	protected FFT getStreamFFT(int stream) {
+		if (stream == 0) {
+			return fft;
+		}
+		return extraStreamAnalyzers[stream - 1].getFFT(bufferSize);
+	}
+	
+	/**
+	 * Use lookahead, when the audio is written in well before it's played (i.e., from a file,
+	 * delayed on its way to the speakers - see SoundVisualizer). Rather than being rendered as
+	 * soon as it's computed, each frame is held until the audio it describes is played: the
+	 * middle of its FFT frame, which is what the spectrum is really of, rather than the end of
+	 * it. Then the lights don't trail the audio at all. Must be called before start().
+	 */
+	public void setLookahead(boolean lookahead) {
+		this.lookahead = lookahead;
+		renderTimingThread = new VisualizationEngineRenderThread(this, timeQueue, latestFrame, !lookahead);
+	}
+	
 	/**
 	 * Signifies that data will be starting soon. Also specifies a startup delay, in milliseconds.
 	 */
 	public void start(double startupDelay) {
 		// Record when "now" is
 		startTime = System.nanoTime() + (long) (startupDelay * 1000000000.0);
-		frameWidth = (long) ((1.0 * BUFFER_SIZE / SAMPLE_RATE / BUFFER_OVERLAP) * 1000000000.0);
+		frameWidth = computeFrameWidth();
+		lastQueuedTimestamp = Long.MIN_VALUE;
+		lastClock = null;
+		if (RENDER_OFFLINE) {
+			addProfileDump();
+			return;		// Frames are rendered as they're computed - no need for the rendering thread
+		}
 		
-		//if (!INSTANT_PLAY) {
+		//if (lookahead) {
 			// Start the rendering thread
 			Thread renderThread = new Thread(renderTimingThread);
 			renderThread.start();
 			renderTimingThread.startTime = startTime;
 		//}
 		
+		addProfileDump();
+		
+	}
+	
+	// Save what everything cost once the show's over (if asked to)
+	private void addProfileDump() {
+		if (profiler != null && PROFILE_DUMP_FILE != null) {
+			final PipelineProfiler p = profiler;
+			final String filename = PROFILE_DUMP_FILE;
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				public void run() {
+					p.dump(filename);
+				}
+			}, "Pipeline profile dump"));
+		}
 	}
 	
 	/**
-	 * Write data into the buffer, and visualize when appropriate.
+	 * Time each frame by the given sound card clock from now on: frame p of the stream written
+	 * in goes through the sound card at the clock's frame p + frameOffset. Then the lights stay
+	 * in sync with the audio even if the sound card's clock drifts, or audio gets dropped.
+	 */
+	public void setAudioClock(AudioClock clock, long frameOffset) {
+		audioClockOffset = frameOffset;
+		audioClock = clock;
+	}
+	
+	// When the frame framesBack before the given stream position goes through the sound card (plus the video delay).
+	// Without a clock, the hops are counted instead, so framesBack is taken off as a time.
+	protected long getFrameTimestamp(long framePosition, int framesBack) {
+		if (RENDER_OFFLINE) {
+			return (framePosition - framesBack) * 1000000000L / SAMPLE_RATE + videoDelayOffset;
+		}
+		AudioClock clock = audioClock;
+		if (clock != null && clock.isStarted()) {
+			checkForResync(clock);
+			return clock.getTime(framePosition - framesBack + audioClockOffset) + videoDelayOffset;
+		}
+		return startTime + numBuffersRendered * frameWidth - framesBack * 1000000000L / SAMPLE_RATE + videoDelayOffset;
+	}
+	
+	// If the clock started over (or a different clock took over), time may really have gone backwards. Then frames
+	// shouldn't be held back to the times of the ones queued before.
+	private void checkForResync(AudioClock clock) {
+		long numResyncs = clock.getNumResyncs();
+		if (clock != lastClock || numResyncs != lastNumResyncs) {
+			lastClock = clock;
+			lastNumResyncs = numResyncs;
+			lastQueuedTimestamp = Long.MIN_VALUE;
+		}
+	}
+	
+	/**
+	 * Write data into the buffer, and visualize when appropriate. The data is assumed to follow
+	 * right after the last data written.
 	 */
 	public void write(byte[] data, int offset, int length) {
+		write(data, offset, length, nextFramePosition);
+	}
+	
+	/**
+	 * Write data into the buffer, and visualize when appropriate. framePosition is the position
+	 * in the stream of the first frame of data (it jumps ahead if any audio was dropped).
+	 */
+	public void write(byte[] data, int offset, int length, long framePosition) {
+		// Make any change of FFT size asked for since the last block (or of overlap, by the governor)
+		int[] reconfiguration = pendingReconfiguration.getAndSet(null);
+		if (reconfiguration != null) {
+			fullQualityOverlap = reconfiguration[1];
+			rebuildAnalysis(reconfiguration[0], getOverlapForQuality());
+		} else if (bufferOverlap != getOverlapForQuality()) {
+			rebuildAnalysis(bufferSize, getOverlapForQuality());
+		}
+		
 		// Data is in the form of frames, which could be multi-channel audio.
-		// Read in by samples
-		long lValue;
-		double dValue;
+		// Decode the whole block at once into the streams to be analyzed.
+		long decodeStart = System.nanoTime();
+		int maxFrames = length / FRAME_SIZE;
+		if (streams[0].length < maxFrames) {
+			streams = new double[streams.length][maxFrames];
+		}
+		int numFrames = decoder.decode(data, offset, length, streams);
 		
-		for(int dataCursor = offset; dataCursor < length + offset; dataCursor += FRAME_SIZE) {
-			
-			// Read in one sample
-			// BYTES_PER_SAMPLE == 2) {
-			lValue = ((((short) data[dataCursor + 1]) + 128) << 8) | (((short) data[dataCursor]) + 128);
-			
-			// Convert this to a double value, and store it!
-			dValue = (double) (lValue - MAX_SAMPLE_VAL) / (MAX_SAMPLE_VAL);
-			
-			// Put in in the buffers!
-			for(int i = 0; i < BUFFER_OVERLAP; i++) {
+		if (dcBlockers != null) {
+			for(int i = 0; i < streams.length; i++) {
+				dcBlockers[i].filterBlock(streams[i], 0, numFrames);
+			}
+		}
+		if (profiler != null) {
+			profiler.recordStage(decodeProfileStage, System.nanoTime() - decodeStart);
+		}
+		
+		// Add the samples to the rings a hop at a time, visualizing at the end of each hop
+		int n = 0;
+		while(n < numFrames) {
+			int chunk = Math.min(numFrames - n, hopSize - hopCursor);
+			sampleRing.addBlock(streams[0], n, chunk);
+			for(int i = 0; i < extraStreamRings.length; i++) {
+				extraStreamRings[i].addBlock(streams[i + 1], n, chunk);
+			}
+			n += chunk;
+			hopCursor += chunk;
 			
-				buffers[i][bufferCursors[i]++] = dValue;
+			// Is it time to visualize?
+			if (hopCursor == hopSize) {
 				
-				// Is it time to visualize?
-				if (bufferCursors[i] == BUFFER_SIZE) {
-					
-					// Compute the synchronization timing parameters for the music
-					long timestamp = startTime + numBuffersRendered * frameWidth + videoDelayOffset;
-					
-					visualize(buffers[i], timestamp, frameWidth);
-					numBuffersRendered++;
-					
-					// Reset the ring buffer
-					bufferCursors[i] = 0;
+				// Compute the synchronization timing parameters for the music (with lookahead, from the middle of the FFT frame)
+				long timestamp = getFrameTimestamp(framePosition + n, lookahead ? bufferSize / 2 : 0);
+				
+				long hopStart = System.nanoTime();
+				analyzeHop();
+				long analyzed = System.nanoTime();
+				visualize(fft, timestamp, frameWidth);
+				numBuffersRendered++;
+				long done = System.nanoTime();
+				if (governor != null) {
+					governHop(hopStart, analyzed, done);
+				}
+				if (profiler != null) {
+					profiler.recordStage(fftProfileStage, analyzed - hopStart);
+					profiler.hopFinished(done - hopStart + lastRenderCost, frameWidth);
 				}
+				
+				hopCursor = 0;
 			}
 		}
+		nextFramePosition = framePosition + numFrames;
 	}
 	
-	protected void visualize(double[] buffer, long timestamp, long timewidth) {
+	// Update the spectrum (and the ones at the other resolutions, in parallel) with the latest hop of samples.
+	private void analyzeHop() {
+		
+		// Start on the spectra at the other resolutions, and of the other streams, in parallel
+		if (multiResolution != null) {
+			multiResolution.startAnalysis();
+		}
+		for(MultiResolutionAnalyzer analyzer : extraStreamAnalyzers) {
+			analyzer.startAnalysis();
+		}
+		
+		if (slidingSpectrum != null) {
+			sampleRing.readFrame(hopBuffer, hopSize);
+			slidingSpectrum.addHop(hopBuffer, fft);
+		} else if (bandAnalyzer != null) {
+			sampleRing.readFrame(hopBuffer, hopSize);
+			bandAnalyzer.addHop(hopBuffer, fft);
+		} else {
+			// Compute an FFT of the newest frame, windowed as it's read out of the ring. The audio is
+			// real-valued, so only the non-redundant half of the spectrum is needed.
+			fftEngine.computeWindowedRealFFT(sampleRing, window, fft);
+		}
 		
-		// Compute an FFT on a windowed buffer
-		for(int i = 0; i < BUFFER_SIZE; i++) {
-			buffer[i] *= window[i];
+		// Scale the spectrum to match REFERENCE_FFT_SIZE, if it's a different size
+		if (spectrumScale != 1.0) {
+			for(int i = 0; i < fftBuffer.length; i++) {
+				fftBuffer[i] *= spectrumScale;
+			}
+			fft.invalidate();
+		}
+		
+		if (multiResolution != null) {
+			multiResolution.finishAnalysis();
+		}
+		for(MultiResolutionAnalyzer analyzer : extraStreamAnalyzers) {
+			analyzer.finishAnalysis();
 		}
 		
-		// Compute an FFT
-		FFT fft = fftEngine.computeFFT(buffer);  //new FFT(buffer, SAMPLE_RATE);
+	}
+	
+	protected void visualize(FFT fft, long timestamp, long timewidth) {
 		
 		// Compute a rendering - light colors, graphs, etc.
 		RenderFrame renderFrame = computeVisualsRendering(fft);
 		renderFrame.timestamp = timestamp;
 		renderFrame.frameTimeWidth = timewidth;
 		
-		if (!INSTANT_PLAY) {
-			// Now, add this rendered frame to the render queue to be rendered!
-			synchronized(timeQueue) {
-				timeQueue.add(renderFrame);
+		renderFrame.queuedTime = System.nanoTime();
+		if (RENDER_OFFLINE) {
+			// Render it right now, rather than when its time comes
+			renderVisuals(renderFrame);
+			if (profiler != null) {
+				profiler.recordStage(renderProfileStage, System.nanoTime() - renderFrame.queuedTime);
 			}
+			return;
+		} else if (lookahead) {
+			// Now, add this rendered frame to the render queue to be rendered! Never ahead of one already queued,
+			// or the render thread would wait on the later frame, and then drop this one as stale.
+			if (renderFrame.timestamp < lastQueuedTimestamp) {
+				renderFrame.timestamp = lastQueuedTimestamp;
+			}
+			lastQueuedTimestamp = renderFrame.timestamp;
+			timeQueue.add(renderFrame);
 		} else {
-			// Play this render frame immediately.
-			synchronized(timeQueue) {
-				timeQueue.clear();	// Clear any other junk - only care about the latest!
-				timeQueue.add(renderFrame);
+			// Play this render frame immediately. Only care about the latest - replace any other frame still waiting.
+			if (latestFrame.getAndSet(renderFrame) != null) {
+				renderTimingThread.frameSuperseded();
+				frameDropped();
 			}
 		}
+		renderTimingThread.frameQueued();
 		
 	}
 	
-	// Create a Hann window buffer!
-	protected void createHannWindow() {
-		int N = BUFFER_SIZE;
-		window = new double[N];
-		for(int n = 0; n < N; n++) {
-			window[n] = 0.5 * (1.0 - Math.cos(2*Math.PI*n / N));
-		}
+	/**
+	 * Returns all of the FeatureDetectors whose outputs the visualizations use, so that the
+	 * spectrum analysis can be tailored to just what they need. May be overridden by the
+	 * subclass. Returns null by default, which means the whole spectrum is always computed.
+	 */
+	protected List<FeatureDetector> getActiveFeatureDetectors() {
+		return null;
 	}
 	
-	
 	// Abstract methods - to be defined by the subclass
 	protected abstract void initVisualizations();
 	protected abstract RenderFrame computeVisualsRendering(FFT fft);
@@ -190,88 +764,112 @@ public abstract class VisualizationEngine {
 
 class VisualizationEngineRenderThread implements Runnable {
 	
+	// How often to print out the scheduling statistics, if asked to (see VisualizationEngine.REPORT_RENDER_TIMING)
+	private static final long REPORT_INTERVAL = 10000000000L;	// 10 seconds
+	
 	private Queue<RenderFrame> timeQueue;
+	private AtomicReference<RenderFrame> latestFrame;
 	private VisualizationEngine engine;
 	public long startTime;
 	protected final boolean INSTANT_PLAY;
 	
-	public VisualizationEngineRenderThread(VisualizationEngine engine, Queue<RenderFrame> timeQueue, boolean INSTANT_PLAY) {
+	// The thread this is running on, so that it can be woken up when a new frame comes in
+	private volatile Thread thread = null;
+	
+	// Scheduling statistics: how late each frame started to render, compared to when it could have
+	// (the later of its timestamp and when it was queued). Only written by the render thread.
+	private volatile long framesRendered = 0;
+	private volatile long framesDropped = 0;
+	private volatile long framesSuperseded = 0;		// Only written by the thread queueing frames
+	private volatile long totalLateness = 0;
+	private volatile long maxLateness = 0;
+	private long lastReportTime = 0;
+	
+	public VisualizationEngineRenderThread(VisualizationEngine engine, Queue<RenderFrame> timeQueue, AtomicReference<RenderFrame> latestFrame, boolean INSTANT_PLAY) {
 		this.engine = engine;
 		this.timeQueue = timeQueue;
+		this.latestFrame = latestFrame;
 		this.INSTANT_PLAY = INSTANT_PLAY;
 	}
 	
+	/**
+	 * Let the render thread know that a new frame was added to the queue. Doesn't block.
+	 */
+	public void frameQueued() {
+		Thread t = thread;
+		if (t != null) {
+			LockSupport.unpark(t);
+		}
+	}
+	
+	/**
+	 * Let the render thread know that a frame was replaced by a newer one before it was rendered
+	 * (instant play mode only). Must only be called by the thread queueing frames.
+	 */
+	public void frameSuperseded() {
+		framesSuperseded++;
+	}
+	
 	// Precondition: timeQueue is in order
 	public void run() {
 		
+		thread = Thread.currentThread();
+		lastReportTime = System.nanoTime();
+		
 		// Instant play mode - just send out the last rendered frame
 		if (INSTANT_PLAY) {
 			
 			while (true) {
-				RenderFrame renderFrame = null;
-				synchronized(timeQueue) {
-					if (timeQueue.size() != 0) {
-						renderFrame = timeQueue.remove();
-					}
-				}
+				RenderFrame renderFrame = latestFrame.getAndSet(null);
 				
 				// Have anything to render?
 				if (renderFrame != null) {
-					engine.renderVisuals(renderFrame);
-				}
-				
-				// Wait a small amount of time
-				try {
-					Thread.sleep(0, 100000); // 100 uS	
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+					render(renderFrame, renderFrame.queuedTime);
+				} else {
+					// Sleep until the next frame comes in (if one came in since we checked, this returns right away)
+					LockSupport.park(this);
 				}
 			
 			}
 			
 		} else { // NOT INSTANT PLAY MODE
 			
-			// Continually see if it's time to render one of the render frames.
+			// Sleep until it's time to render the next render frame, or a new one comes in
 			RenderFrame frameToRender = null;
 			while(true) {
 				long now = System.nanoTime();
+				long wakeUpTime = Long.MAX_VALUE;
 				
-				//System.out.println("*** (" + ((double) (now - startTime) / 1000000)+ ")");
 				frameToRender = null;
-				synchronized(timeQueue) {// Must synchronize, since this is the consumer or a producer-consumer process
-					while(!timeQueue.isEmpty()) {
-						RenderFrame frame = timeQueue.peek();
-						if (frame.timestamp + frame.frameTimeWidth < now) {
-							// This frame occurred in the past; we're running too slowly. 
-							// Just drop this rendering andi move on to the next.
-							//System.out.println("D: " + ((double) (frame.timestamp + frame.frameTimeWidth - startTime) / 1000000));
-							timeQueue.remove();
-							
-						} else if (frame.timestamp <= now) {
-							// It is time to render this frame!
-							frameToRender = frame;
-							timeQueue.remove();
-							//System.out.println("R");
-							break;
-							
-						} else {
-							// This frame must be in the future, so wait.
-							//System.out.println("F");
-							break;
-						}
+				RenderFrame frame;
+				while((frame = timeQueue.peek()) != null) {	// No locking needed - this is the only consumer
+					if (frame.timestamp + frame.frameTimeWidth < now) {
+						// This frame occurred in the past; we're running too slowly. 
+						// Just drop this rendering andi move on to the next.
+						timeQueue.poll();
+						framesDropped++;
+						engine.frameDropped();
+						
+					} else if (frame.timestamp <= now) {
+						// It is time to render this frame!
+						frameToRender = frame;
+						timeQueue.poll();
+						break;
+						
+					} else {
+						// This frame must be in the future, so wait until then.
+						wakeUpTime = frame.timestamp;
+						break;
 					}
 				}
 				
 				// If necessary, render!
 				if (frameToRender != null) {
-					engine.renderVisuals(frameToRender);
-				}
-				
-				// Wait a small amount of time
-				try {
-					Thread.sleep(0, 100000); // 100 uS	
-				} catch (InterruptedException e) {
-					e.printStackTrace();
+					render(frameToRender, Math.max(frameToRender.timestamp, frameToRender.queuedTime));
+				} else if (wakeUpTime == Long.MAX_VALUE) {
+					LockSupport.park(this);
+				} else {
+					LockSupport.parkNanos(this, wakeUpTime - now);
 				}
 				
 			}
@@ -281,6 +879,67 @@ class VisualizationEngineRenderThread implements Runnable {
 
 	}
 	
+	// Render a frame, and keep track of how late it was.
+	private void render(RenderFrame frame, long deadline) {
+		long renderStart = System.nanoTime();
+		long lateness = renderStart - deadline;
+		engine.renderVisuals(frame);
+		engine.renderFinished(System.nanoTime() - renderStart);
+		
+		framesRendered++;
+		totalLateness += lateness;
+		if (lateness > maxLateness) {
+			maxLateness = lateness;
+		}
+		
+		if (VisualizationEngine.REPORT_RENDER_TIMING) {
+			long now = System.nanoTime();
+			if (now - lastReportTime > REPORT_INTERVAL) {
+				System.out.println(getSchedulingReport());
+				System.out.println(engine.getQualityReport());
+				lastReportTime = now;
+			}
+		}
+	}
+	
+	public long getFramesRendered() {
+		return framesRendered;
+	}
+	
+	/**
+	 * Frames that were dropped because their time had already passed (only in scheduled mode).
+	 */
+	public long getFramesDropped() {
+		return framesDropped;
+	}
+	
+	/**
+	 * Frames that were replaced by a newer one before they could be rendered (only in instant play mode).
+	 */
+	public long getFramesSuperseded() {
+		return framesSuperseded;
+	}
+	
+	/**
+	 * The average time (in milliseconds) between when frames could have been rendered, and when they were.
+	 */
+	public double getAverageLateness() {
+		long n = framesRendered;
+		return (n == 0 ? 0 : totalLateness / 1000000.0 / n);
+	}
+	
+	/**
+	 * The worst lateness so far, in milliseconds.
+	 */
+	public double getMaxLateness() {
+		return maxLateness / 1000000.0;
+	}
+	
+	public String getSchedulingReport() {
+		return String.format("Render timing: %d frames rendered, %d dropped, %d superseded, lateness %.3f ms average, %.3f ms worst",
+				getFramesRendered(), getFramesDropped(), getFramesSuperseded(), getAverageLateness(), getMaxLateness());
+	}
+	
 	
 }
 
@@ -288,6 +947,7 @@ class RenderFrame {
 	// Timing information
 	public long timestamp;			// When this frame should start to be rendered - absolute time in nanoseconds
 	public long frameTimeWidth;		// How wide this frame is, in nanoseconds
+	public long queuedTime;			// When this frame was handed to the render thread - absolute time in nanoseconds
 
 	// Other fields to be defined by the subclass that actually contain the rendering information!
 	
@@ -6,6 +6,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.Semaphore;
@@ -15,6 +16,7 @@ import javax.sound.sampled.AudioFormat;
 import Arduino.LEDVisualizer;
 import Arduino.RelayVisuals;
 import FeatureDetectors.BassFinder;
+import FeatureDetectors.FeatureDetector;
 import FeatureDetectors.SharpClapFinder;
 import FeatureDetectors.SilenceFinder;
 import GenreClassifier.NaiveBayesClassifier;
@@ -80,7 +82,7 @@ public class VisualizationEngineAC extends VisualizationEngine {
 		
 		// Divide up the GUI into different useful stuff.
 		graphMapper = new GraphDisplay(30, 30, 700, 350, (Graphics2D) g2D);
-		spectrumMapper = new ScrollingSpectrum(30, 400, 500, 300, g2D, 30, 20000, 100, BUFFER_SIZE,  SAMPLE_RATE);
+		spectrumMapper = new ScrollingSpectrum(30, 400, 500, 300, g2D, 30, 20000, 100, bufferSize,  SAMPLE_RATE);
 		channelMapper = new ScrollingChannel(30, 750, 500, 200, (Graphics2D) g2D);
 		bassLight = new ColoredLight(Color.RED, 150, 750, 30, 150, 150, (Graphics2D) g2D);
 		highsLight = new ColoredLight(Color.GREEN, 150, 920, 30, 150, 150, (Graphics2D) g2D);
@@ -90,9 +92,9 @@ public class VisualizationEngineAC extends VisualizationEngine {
 		
 		
 		// Start some state machines
-		bassFinder = new BassFinder(SAMPLE_RATE, BUFFER_SIZE);
-		silenceFinder = new SilenceFinder(Math.round(0.5 * SAMPLE_RATE * BUFFER_OVERLAP / BUFFER_SIZE));
-		sharpClapFinder = new SharpClapFinder(SAMPLE_RATE, BUFFER_SIZE);
+		bassFinder = new BassFinder(SAMPLE_RATE, bufferSize);
+		silenceFinder = new SilenceFinder(Math.round(0.5 * SAMPLE_RATE * bufferOverlap / bufferSize));
+		sharpClapFinder = new SharpClapFinder(SAMPLE_RATE, bufferSize);
 		
 		// INitialize them
 		bassFinder.init();
@@ -110,19 +112,26 @@ public class VisualizationEngineAC extends VisualizationEngine {
 		
 	}
 	
+	/**
+	 * The relays are driven by the bass alone, so only the bass bins of the spectrum are needed.
+	 */
+	@Override
+	protected List<FeatureDetector> getActiveFeatureDetectors() {
+		List<FeatureDetector> detectors = new LinkedList<FeatureDetector>();
+		detectors.add(bassFinder);
+		return detectors;
+	}
+	
 	/**
 	 * Compute a frame to be rendered at the appropriate time
 	 */
 	@Override
 	protected RenderFrame computeVisualsRendering(FFT fft) {
 		
-		// Obtain the frequencies and corresponding magnitudes of the FFT
-		double[] frequencies = fft.getFrequencies();
-		double[] magnitudes = fft.getMagnitudes();
-		
-		// Compute useful values from the FFT data
-		double bassLevel = bassFinder.getFreqs(frequencies, magnitudes);
-		double sharpClapLevel = sharpClapFinder.getFreqs(frequencies, magnitudes);
+		// Compute useful values from the FFT data (the bass may be at its own resolution)
+		FFT bassFFT = getFFTFor(bassFinder);
+		double bassLevel = bassFinder.getFreqsFromPowers(bassFFT.getFrequencies(), bassFFT.getPowers());
+		//double sharpClapLevel = sharpClapFinder.getFreqsFromPowers(fft.getFrequencies(), fft.getPowers());	// Not used by any channels right now
 		
 		// Add some hysteresis to the bass to redice flicker!
 		if (bassHigh == true) {
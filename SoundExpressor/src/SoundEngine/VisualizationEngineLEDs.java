@@ -97,7 +97,7 @@ public class VisualizationEngineLEDs extends VisualizationEngine {
 		
 		// Divide up the GUI into different useful stuff.
 		graphMapper = new GraphDisplay(30, 30, 700, 350, (Graphics2D) g2D);
-		spectrumMapper = new ScrollingSpectrum(30, 400, 500, 300, g2D, 30, 20000, 100.0, BUFFER_SIZE, SAMPLE_RATE);
+		spectrumMapper = new ScrollingSpectrum(30, 400, 500, 300, g2D, 30, 20000, 100.0, bufferSize, SAMPLE_RATE);
 		channelMapper = new ScrollingChannel(30, 750, 500, 200, (Graphics2D) g2D);
 		bassLight = new ColoredLight(Color.RED, 150, 750, 30, 150, 150, (Graphics2D) g2D);
 		rgbLight = new RGBLight(150, 920, 30, 150, 150, (Graphics2D) g2D);
@@ -107,15 +107,15 @@ public class VisualizationEngineLEDs extends VisualizationEngine {
 		
 		
 		// Start some state machines
-		bassFinder = new BassFinder(SAMPLE_RATE, BUFFER_SIZE);
-		clapFinder = new ClapFinder(SAMPLE_RATE, BUFFER_SIZE);
-		//vocalsFinder = new VocalsFinder(SAMPLE_RATE, BUFFER_SIZE);
-		//midsFinder = new FrequencyRangeFinder(SAMPLE_RATE, BUFFER_SIZE, 200.0, 2000.0);
-		//highsFinder = new FrequencyRangeFinder(SAMPLE_RATE, BUFFER_SIZE, 6000.0, 20000.0);
-		levelMeter = new LevelMeter(SAMPLE_RATE, BUFFER_SIZE);
-		rhythmMeter = new RhythmMeter(SAMPLE_RATE, BUFFER_SIZE);
-		silenceFinder = new SilenceFinder(Math.round(0.5 * SAMPLE_RATE * BUFFER_OVERLAP / BUFFER_SIZE));
-		sharpClapFinder = new SharpClapFinder(SAMPLE_RATE, BUFFER_SIZE);
+		bassFinder = new BassFinder(SAMPLE_RATE, bufferSize);
+		clapFinder = new ClapFinder(SAMPLE_RATE, bufferSize);
+		//vocalsFinder = new VocalsFinder(SAMPLE_RATE, bufferSize);
+		//midsFinder = new FrequencyRangeFinder(SAMPLE_RATE, bufferSize, 200.0, 2000.0);
+		//highsFinder = new FrequencyRangeFinder(SAMPLE_RATE, bufferSize, 6000.0, 20000.0);
+		levelMeter = new LevelMeter(SAMPLE_RATE, bufferSize);
+		rhythmMeter = new RhythmMeter(SAMPLE_RATE, bufferSize);
+		silenceFinder = new SilenceFinder(Math.round(0.5 * SAMPLE_RATE * bufferOverlap / bufferSize));
+		sharpClapFinder = new SharpClapFinder(SAMPLE_RATE, bufferSize);
 		
 		bassDist = new DistributionPlotter(Color.GREEN, "Bass Distribution", 5, 5, 500, 300, 75.0, 300.0, g2D);
 		midsDist = new DistributionPlotter(Color.GREEN, "Mids Distribution", 510, 5, 500, 300, 10.0, 40.0, g2D);
@@ -153,15 +153,16 @@ public class VisualizationEngineLEDs extends VisualizationEngine {
 		
 		double[] frequencies = fft.getFrequencies();
 		double[] magnitudes = fft.getMagnitudes();
+		double[] powers = fft.getPowers();
 		
 		// Compute useful values from the FFT data
-		double bassLevel = bassFinder.getFreqs(frequencies, magnitudes);
+		double bassLevel = bassFinder.getFreqsFromPowers(frequencies, powers);
 		double midsLevel = midsFinder.getFreqs(frequencies, magnitudes);
 		double highsLevel = highsFinder.getFreqs(frequencies, magnitudes);
 		//double vocalsLevel = vocalsFinder.getFreqs(frequencies, magnitudes);
 		double clapLevel = clapFinder.getFreqs(frequencies, magnitudes);
-		double sharpClapLevel = sharpClapFinder.getFreqs(frequencies, magnitudes);
-		double level = levelMeter.getLevel(frequencies, magnitudes);
+		double sharpClapLevel = sharpClapFinder.getFreqsFromPowers(frequencies, powers);
+		double level = levelMeter.getLevelFromPowers(frequencies, powers);
 		boolean bassTimeDeltaReady = rhythmMeter.update(bassLevel);
 		boolean silent = false;//silenceFinder.update(level);
 		
@@ -197,7 +198,7 @@ public class VisualizationEngineLEDs extends VisualizationEngine {
 		plotter.update(new double[] {bassFinder.getCurrentLevel(), 30.0 * sharpClapFinder.getCurrentLevel()});
 		
 		tictoc.tic();
-		spectrumMapper.updateWithNewSpectrum(frequencies, magnitudes);
+		spectrumMapper.updateWithNewPowerSpectrum(frequencies, powers);
 		tictoc.toc();
 		
 		//System.out.println("Spectrum: " + tictoc.getAverageTime() + "ms, " + tictoc.getNumCallsPerSecond() + "calls/s");
@@ -25,6 +25,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.imageio.ImageIO;
 import javax.sound.midi.MidiEvent;
@@ -108,6 +109,25 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 	TextLight textLight;
 	//RealtimePlotter plotter;
 
+	// Run without any GUI at all (i.e., for a permanent installation with no monitor), controlled by MIDI and the
+	// control socket instead. Nothing is drawn, and only the two visualizers being mixed into the lights are computed.
+	static protected boolean HEADLESS = false;
+	
+	// The control socket (see PartyControlServer), if CONTROL_PORT isn't 0
+	static protected int CONTROL_PORT = 0;
+	static protected String CONTROL_ADDRESS = "127.0.0.1";
+	protected PartyControlServer controlServer;
+	
+	// Where the final lights go when rendering offline (see OfflineRenderer), instead of to the LEDs. Offline, the
+	// auto-DJ and automatic cross-fades are stepped along by how much audio has gone by, as often as their timers
+	// would have gone off live, since the audio goes by much faster than the wall clock.
+	protected CueFileWriter cueWriter;
+	protected static final double AUTO_DJ_STEP_TIME = 0.017;		// Seconds
+	protected static final double CROSSFADE_STEP_TIME = 0.030;
+	protected double offlineTime = 0.0;
+	protected double nextAutoDJStepTime = 0.0;
+	protected double nextCrossfadeStepTime = 0.0;
+
 	// The list of feature detectors
 	public ArrayList<FeatureDetector> featureDetectors;
 	
@@ -116,6 +136,8 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 	
 	// The list of post processing effects
 	public ArrayList<PostProcessor> postProcessors;
+	// A new number of updates per second for them, waiting for the render thread to pass it on (they run on that thread)
+	private final AtomicReference<Double> pendingPostProcessorTiming = new AtomicReference<Double>(null);
 	// A status light indicator for each post processing effect
 	public IndicatorLight[] statusLights;
 	// Special post processors that we should keep track of
@@ -144,6 +166,26 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 	
 	TimerTicToc tictoc;
 	
+	// When the quality governor turns the quality down, visualizers that aren't mixed into the lights only
+	// get updated every HIDDEN_VISUALIZER_PERIOD hops (and not at all at the lowest level, unless they're being
+	// chosen from), and keep showing their last output in between. The scrolling spectrum updates less often too.
+	protected static final int NUM_QUALITY_LEVELS = 2;
+	protected static final int HIDDEN_VISUALIZER_PERIOD = 4;
+	protected ColorOutput[] lastColorOutputs;
+	protected long numHopsVisualized = 0;
+	protected int featuresStage;
+	protected int visualizersStage;
+	protected int spectrumStage;
+	
+	// The profiler's stages (see PipelineProfiler): one for each plugin, and the rest of rendering
+	protected int[] featureProfileStages;
+	protected int[] visualizerProfileStages;
+	protected int[] postProcessorProfileStages;
+	protected int mixProfileStage;
+	protected int serialEncodeProfileStage;
+	protected int serialWriteProfileStage;
+	protected int guiProfileStage;
+	
 
 	public VisualizationEngineParty(AudioFormat format, double videoDelaySec) {
 		super(format, videoDelaySec);
@@ -168,6 +210,7 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 		
 		// Set up all of the visualizer plugins
 		visualizers = allVisualizers();
+		lastColorOutputs = new ColorOutput[visualizers.size()];
 		for(Visualizer v : visualizers) {
 			v.init();
 			
@@ -184,25 +227,67 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 			
 		}
 		// Create a status light for each post processor to show if it's active or not
-		statusLights = new IndicatorLight[postProcessors.size()];
-		for(int i = 0; i < postProcessors.size(); i++) {
-			statusLights[i] = new IndicatorLight();
+		if (!HEADLESS) {
+			statusLights = new IndicatorLight[postProcessors.size()];
+			for(int i = 0; i < postProcessors.size(); i++) {
+				statusLights[i] = new IndicatorLight();
+			}
 		}
 		
 		
-		try {
-			//ledVisuals = new LEDVisualizer();
-			ledVisuals = new PartyLightsController8();
-			//ledVisuals = new PartyLightsController16();
-		} catch (Throwable o) {
-			System.out.println("WARNING: Couldn't connect to LEDs!");
+		// (Not when rendering offline, when the lights shouldn't be flashing along at many times the speed!)
+		if (!RENDER_OFFLINE) {
+			try {
+				//ledVisuals = new LEDVisualizer();
+				ledVisuals = new PartyLightsController8();
+				//ledVisuals = new PartyLightsController16();
+			} catch (Throwable o) {
+				System.out.println("WARNING: Couldn't connect to LEDs!");
+			}
+		}
+		
+		// Keep track of how long each part of computing the visuals takes
+		if (governor != null) {
+			featuresStage = governor.addStage("Feature detectors");
+			visualizersStage = governor.addStage("Visualizers");
+			spectrumStage = governor.addStage("Spectrum display");
+		}
+		featureProfileStages = new int[featureDetectors.size()];
+		visualizerProfileStages = new int[visualizers.size()];
+		postProcessorProfileStages = new int[postProcessors.size()];
+		if (profiler != null) {
+			for(int i = 0; i < featureDetectors.size(); i++) {
+				featureProfileStages[i] = profiler.addStage("Feature: " + featureDetectors.get(i).getClass().getSimpleName());
+			}
+			for(int i = 0; i < visualizers.size(); i++) {
+				visualizerProfileStages[i] = profiler.addStage("Visualizer: " + visualizers.get(i).getName());
+			}
+			mixProfileStage = profiler.addStage("Mix");
+			for(int i = 0; i < postProcessors.size(); i++) {
+				postProcessorProfileStages[i] = profiler.addStage("Post: " + postProcessors.get(i).getName());
+			}
+			serialEncodeProfileStage = profiler.addStage("Serial encode");
+			serialWriteProfileStage = profiler.addStage("Serial write");
+			guiProfileStage = profiler.addStage("GUI render");
 		}
 		
 		// Start up MIDI
-		setupMIDIControllers();
+		if (!RENDER_OFFLINE) {
+			setupMIDIControllers();
+		}
 		
-		// Set up the GUI
-		startGUI();
+		// Set up the GUI (or just what's needed without one)
+		if (HEADLESS) {
+			startHeadless();
+		} else {
+			startGUI();
+		}
+		
+		// Listen for commands over the network
+		if (CONTROL_PORT != 0 && !RENDER_OFFLINE) {
+			controlServer = new PartyControlServer(this, CONTROL_ADDRESS, CONTROL_PORT);
+			controlServer.start();
+		}
 		
 	}
 	
@@ -213,8 +298,8 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 	public ArrayList<FeatureDetector> allFeatureDetectors() {
 		ArrayList<FeatureDetector> detectors = new ArrayList<FeatureDetector>();
 		
-		int FFT_SIZE = BUFFER_SIZE;
-		double UPDATES_PER_SECOND = 1.0 * SAMPLE_RATE / FFT_SIZE * BUFFER_OVERLAP; 
+		int FFT_SIZE = getFFTSize();
+		double UPDATES_PER_SECOND = getUpdatesPerSecond(); 
 		
 		// Add the detectors here
 		detectors.add(new BassFinder(FFT_SIZE, UPDATES_PER_SECOND));
@@ -236,8 +321,8 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 	public ArrayList<Visualizer> allVisualizers() {
 		ArrayList<Visualizer> visualizers = new ArrayList<Visualizer>();
 		
-		int FFT_SIZE = BUFFER_SIZE;
-		double UPDATES_PER_SECOND = (double) SAMPLE_RATE / FFT_SIZE * BUFFER_OVERLAP; 
+		int FFT_SIZE = getFFTSize();
+		double UPDATES_PER_SECOND = getUpdatesPerSecond(); 
 		
 		// Add the visualizers here
 		
@@ -273,8 +358,8 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 	 */
 	public ArrayList<PostProcessor> allPostProcessors() {
 		ArrayList<PostProcessor> postProcessors = new ArrayList<PostProcessor>();
-		int FFT_SIZE = BUFFER_SIZE;
-		double UPDATES_PER_SECOND = (double) SAMPLE_RATE / FFT_SIZE * BUFFER_OVERLAP; 
+		int FFT_SIZE = getFFTSize();
+		double UPDATES_PER_SECOND = getUpdatesPerSecond(); 
 		
 		// Add the post processors here
 		volumePostProcessor = new LightVolume(UPDATES_PER_SECOND);
@@ -292,22 +377,74 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 	}
 	
 	
+	@Override
+	protected void analysisTimingChanged(int fftSize, double updatesPerSecond) {
+		// Pass the new timing on to every plugin
+		for(FeatureDetector f : featureDetectors) {
+			f.setTiming(fftSize, updatesPerSecond);
+		}
+		for(Visualizer v : visualizers) {
+			v.setTiming(fftSize, updatesPerSecond);
+		}
+		pendingPostProcessorTiming.set(updatesPerSecond);
+		if (spectrumMapper != null) {
+			spectrumMapper.setFFTSize(fftSize);
+		}
+	}
+	
+	@Override
+	protected List<FeatureDetector> getActiveFeatureDetectors() {
+		return featureDetectors;
+	}
+	
+	@Override
+	protected int getNumQualityLevels() {
+		return NUM_QUALITY_LEVELS;
+	}
+	
+	// Whether the given visualizer should be updated this hop, at the given quality level
+	protected boolean isVisualizerNeeded(int index, int quality) {
+		if (index == visualizerLeftIndex || index == visualizerRightIndex) {
+			return true;
+		} else if (RENDER_OFFLINE) {
+			return true;		// Keep them all up to date, so the auto-DJ switches to them just as it would live
+		} else if (HEADLESS) {
+			return false;		// Nobody can see the rest
+		} else if (quality == QualityGovernor.FULL_QUALITY) {
+			return true;
+		}
+		boolean shown = (lightDJState == LightDJState.LIGHTDJ_STATE_CHOOSING_VISUALIZER);
+		if (quality >= 2 && !shown) {
+			return false;
+		}
+		// Take turns, so only a few get updated each hop
+		return (index + numHopsVisualized) % HIDDEN_VISUALIZER_PERIOD == 0;
+	}
+	
 	@Override
 	protected RenderFrame computeVisualsRendering(FFT fft) {
 		
+		long stageStart = System.nanoTime();
+		int quality = getQualityLevel();
+		if (RENDER_OFFLINE) {
+			stepOfflineAutomation();
+		}
+		
 		// Create a featurelist, and pass it al ong with the FFT to each FeatureDetector
 		FeatureList featureList = new FeatureList();
-		double[] frequencies = fft.getFrequencies();
-		double[] magnitudes = fft.getMagnitudes();
 		
-		// Compute all of the features
-		for(FeatureDetector f : featureDetectors) {
+		// Compute all of the features. Each FeatureDetector asks the FFT for whichever view of
+		// the spectrum it needs, and the FFT only computes each view once.
+		for(int i = 0; i < featureDetectors.size(); i++) {
+			FeatureDetector f = featureDetectors.get(i);
+			long pluginStart = System.nanoTime();
 			try {
-				f.computeFeatures(frequencies, magnitudes, featureList);
+				f.computeFeatures(getFFTFor(f), featureList);
 			} catch (Exception e) {
 				System.out.println("Error with FeatureDetector!");
 				e.printStackTrace();
 			}
+			profileStage(featureProfileStages[i], pluginStart);
 		}
 		
 		
@@ -374,19 +511,29 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 		featureList.addFeature("KEY_F11", f11KeyPressed ? 1.0 : 0.0);
 		featureList.addFeature("KEY_F12", f12KeyPressed ? 1.0 : 0.0);
 		
-		// Now that we have a full-fledged FeatureList, pass it to the Visualizers
+		stageStart = recordStage(featuresStage, stageStart);
+		
+		// Now that we have a full-fledged FeatureList, pass it to the Visualizers (or, for the ones
+		// skipped at lower quality, reuse what they came up with last time)
 		ColorOutput[] colorOutputs = new ColorOutput[visualizers.size()];
 		for(int i = 0; i < visualizers.size(); i++) {
 			Visualizer v = visualizers.get(i);
-			ColorOutput c = null;
-			try {
-				c = v.visualize(featureList);
-			} catch (Exception e) {
-				System.out.println("Error with Visualizer!");
-				e.printStackTrace();
+			ColorOutput c = lastColorOutputs[i];
+			if (c == null || isVisualizerNeeded(i, quality)) {
+				c = null;
+				long pluginStart = System.nanoTime();
+				try {
+					c = v.visualize(featureList);
+				} catch (Exception e) {
+					System.out.println("Error with Visualizer!");
+					e.printStackTrace();
+				}
+				profileStage(visualizerProfileStages[i], pluginStart);
+				lastColorOutputs[i] = c;
 			}
 			colorOutputs[i] = c;
 		}
+		stageStart = recordStage(visualizersStage, stageStart);
 		
 		
 		RenderFrameParty renderFrame = new RenderFrameParty();
@@ -397,25 +544,87 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 		
 		// Update (but do not render) relevant visual GUI elements
 		// plotter.update(new double[] {(100.0 * (Double) featureList.getFeature("BASS_LEVEL")), 0.0, 0.0});
-		spectrumMapper.updateWithNewSpectrum(frequencies, magnitudes);
-		
+		if (spectrumMapper != null && (quality == QualityGovernor.FULL_QUALITY || numHopsVisualized % (2 * quality) == 0)) {
+			spectrumMapper.updateWithNewPowerSpectrum(fft.getFrequencies(), fft.getPowers());
+		}
+		recordStage(spectrumStage, stageStart);
+		numHopsVisualized++;
 		
 		return renderFrame;
 	}
+	
+	// Offline, step the auto-DJ and any automatic cross-fade along by one hop's worth of audio
+	private void stepOfflineAutomation() {
+		offlineTime += 1.0 / getUpdatesPerSecond();
+		while(nextAutoDJStepTime <= offlineTime) {
+			autoDJStep();
+			nextAutoDJStepTime += AUTO_DJ_STEP_TIME;
+		}
+		while(nextCrossfadeStepTime <= offlineTime) {
+			automateCrossfades();
+			nextCrossfadeStepTime += CROSSFADE_STEP_TIME;
+		}
+	}
+	
+	/**
+	 * Send the final lights to the given cue file (see OfflineRenderer), or stop if null.
+	 */
+	public void setCueWriter(CueFileWriter writer) {
+		cueWriter = writer;
+	}
+	
+	// Let the quality governor know how long a stage took (if it's on). Returns the time now.
+	private long recordStage(int stage, long stageStart) {
+		long now = System.nanoTime();
+		if (governor != null) {
+			governor.recordStage(stage, now - stageStart);
+		}
+		return now;
+	}
+	
+	// Let the profiler know how long a stage took (if it's on). Returns the time now.
+	private long profileStage(int stage, long stageStart) {
+		long now = System.nanoTime();
+		if (profiler != null) {
+			profiler.recordStage(stage, now - stageStart);
+		}
+		return now;
+	}
 
 	@Override
 	protected void renderVisuals(RenderFrame rf) {
 		
 		RenderFrameParty renderFrame = (RenderFrameParty) rf;
+		
+		// The post processors run on this thread, so this is where they find out about any new timing
+		Double updatesPerSecond = pendingPostProcessorTiming.getAndSet(null);
+		if (updatesPerSecond != null) {
+			for(PostProcessor p : postProcessors) {
+				p.setTiming(updatesPerSecond);
+			}
+		}
 
 		// Mix the colors as requested by the LightDJ
+		long stageStart = System.nanoTime();
 		ColorOutput colorOutput = mixColors(renderFrame);
+		profileStage(mixProfileStage, stageStart);
 		
 		// Apply any necessary post-processing
 		applyPostProcessing(colorOutput, renderFrame.featureList);
 		
-		// Send the command to the LED's
-		ledVisuals.visualize(colorOutput);	// Send SERIAL to the RGB's
+		// Send the command to the LED's (if they could be connected to), or to the cue file when rendering offline
+		if (ledVisuals != null) {
+			stageStart = System.nanoTime();
+			ledVisuals.visualize(colorOutput);	// Send SERIAL to the RGB's
+			if (profiler != null) {
+				long writeTime = ledVisuals.getLastWriteTime();
+				profiler.recordStage(serialEncodeProfileStage, System.nanoTime() - stageStart - writeTime);
+				profiler.recordStage(serialWriteProfileStage, writeTime);
+			}
+		}
+		if (cueWriter != null) {
+			cueWriter.addFrame(renderFrame.timestamp, colorOutput, renderFrame.featureList);
+		}
 		
 		renderFrame.finalOutput = colorOutput;
 		
@@ -430,8 +639,10 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 	protected void applyPostProcessing(ColorOutput colorOutput, FeatureList featureList) {
 		
 		// Run through each of the post processors and execute.
-		for(PostProcessor postProcessor : postProcessors) {
-			postProcessor.postProcess(colorOutput, featureList);
+		for(int i = 0; i < postProcessors.size(); i++) {
+			long pluginStart = System.nanoTime();
+			postProcessors.get(i).postProcess(colorOutput, featureList);
+			profileStage(postProcessorProfileStages[i], pluginStart);
 		}
 		
 		
@@ -519,6 +730,7 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 	public static Font PANEL_FONT_SMALL;
 	public static Font PANEL_FONT_LARGE;
 	public static Font PULSE_KEEPER_FONT;
+	public static Font PROFILE_FONT;
 	public static Stroke REGULAR_STROKE;
 	public static Stroke THICK_STROKE;
 	
@@ -612,7 +824,8 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 	// Store the state of the LightDJ
 	public enum LightDJState {
 		LIGHTDJ_STATE_NORMAL,
-		LIGHTDJ_STATE_CHOOSING_VISUALIZER
+		LIGHTDJ_STATE_CHOOSING_VISUALIZER,
+		LIGHTDJ_STATE_SHOWING_PROFILE
 	}
 	protected LightDJState lightDJState;
 	
@@ -713,6 +926,7 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 			
 			Font nimbus = Font.createFont(Font.TRUETYPE_FONT, new File("Fonts/LiberationMono-Bold.ttf"));
 			PULSE_KEEPER_FONT = nimbus.deriveFont(72.0f * DPI_MULT);
+			PROFILE_FONT = nimbus.deriveFont(14.0f * DPI_MULT);
 			
 		} catch (Exception e) {
 			System.out.println("Error: Could not load custom fonts from the Fonts/ directory!");
@@ -720,6 +934,7 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 			PANEL_FONT_SMALL= new Font("Eraser", Font.PLAIN, scale(16));
 			PANEL_FONT_LARGE = new Font("Eraser", Font.PLAIN, scale(48));
 			PULSE_KEEPER_FONT = new Font("Nimbus Mono L", Font.BOLD, scale(72));
+			PROFILE_FONT = new Font(Font.MONOSPACED, Font.PLAIN, scale(14));
 			e.printStackTrace();
 		}
 
@@ -772,6 +987,32 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 	}
 	
 	
+	/**
+	 * Start up without a GUI: set up just what the lights need, without opening any windows,
+	 * loading any fonts or images, or repainting anything.
+	 */
+	public void startHeadless() {
+		alpha = 0.0;
+		lightDJState = LightDJState.LIGHTDJ_STATE_NORMAL;
+		crossfadeAutomator = CrossfadeAutomator.CROSSFADE_MANUAL;
+		
+		// The cross-fader and pulse keeper still hold state that the lights use (but are never drawn)
+		crossfaderKnob = new CrossfaderKnob(this);
+		pulseKeeper = new PulseKeeper();
+		
+		// The auto-DJ is usually stepped along by the GUI's repaint timer (offline, by stepOfflineAutomation instead)
+		if (!RENDER_OFFLINE) {
+			Timer t = new Timer("Auto DJ", true);
+			t.scheduleAtFixedRate(new TimerTask() {
+				public void run() {
+					autoDJStep();
+				}
+			}, 0, 17);
+		}
+		
+		System.out.println("Light DJ started (headless).");
+	}
+	
 	public static int scale(int val) {
 		return (int) Math.round(VisualizationEngineParty.DPI_MULT * val);
 	}
@@ -984,6 +1225,10 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 	 */
 	protected void loadVisualizerPlugin(boolean left, int pluginIndex) {
 		
+		if (HEADLESS) {
+			return;		// Nothing to draw
+		}
+		
 		int x; int y; int width; int height;
 		
 		Visualizer visualizer = visualizers.get(pluginIndex);
@@ -1104,6 +1349,38 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 	
 	}
 	
+	/**
+	 * Paint the pipeline profile (see PipelineProfiler) over everything else: the frame, drop and
+	 * overrun counts, and then what each stage costs. Toggled with the ` key.
+	 */
+	protected void paintProfile() {
+		Graphics2D g2D = (Graphics2D) buffer.getGraphics();
+		
+		g2D.setFont(PANEL_FONT_LARGE);
+		g2D.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING , RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		g2D.setColor(TEXT_COLOR);
+		g2D.drawString("Profile", ACTIVE_LAYER_X, ACTIVE_LAYER_Y - scale(10));
+		
+		g2D.setFont(PROFILE_FONT);
+		int lineHeight = g2D.getFontMetrics().getHeight();
+		int x = ACTIVE_LAYER_X + 2*BORDER_SIZE;
+		int y = ACTIVE_LAYER_Y + 2*BORDER_SIZE + lineHeight;
+		int line = 0;
+		for(String text : profiler.getReport()) {
+			// The counters, and the column headings, stand out
+			g2D.setColor(line < 2 ? HOT_COLOR : TEXT_COLOR);
+			g2D.drawString(text, x, y);
+			y += lineHeight;
+			line++;
+			if (y > ACTIVE_LAYER_Y + ACTIVE_LAYER_HEIGHT - 2*BORDER_SIZE) {
+				// Out of room - carry on in a second column
+				x += ACTIVE_LAYER_WIDTH / 2;
+				y = ACTIVE_LAYER_Y + 2*BORDER_SIZE + lineHeight;
+			}
+		}
+		
+	}
+	
 	public void paintPulseKeeper() {
 		Graphics2D g2D = (Graphics2D) background.getGraphics();
 		
@@ -1156,6 +1433,7 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 	 * (Called automagically by a timer)
 	 */
 	public void renderDJ() {
+		long renderStart = System.nanoTime();
 		RenderFrameParty renderFrame;
 		synchronized(this) {
 			renderFrame = lastFrame;
@@ -1222,6 +1500,8 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 			if (lightDJState == LightDJState.LIGHTDJ_STATE_CHOOSING_VISUALIZER) {
 				// Draw more stuff
 				paintVisualizerChooser(renderFrame);
+			} else if (lightDJState == LightDJState.LIGHTDJ_STATE_SHOWING_PROFILE) {
+				paintProfile();
 			}
 			
 			
@@ -1237,6 +1517,8 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 		// Step the AutoDJ
 		autoDJStep();
 		
+		profileStage(guiProfileStage, renderStart);
+		
 	}
 	
 	protected void renderSidePanel() {
@@ -1461,6 +1743,11 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 				activeLayer = true;
 				lightDJState = LightDJState.LIGHTDJ_STATE_CHOOSING_VISUALIZER;
 				
+			} else if (keyCode == KeyEvent.VK_BACK_QUOTE && profiler != null) {
+				// Show what each stage of the pipeline is costing
+				activeLayer = true;
+				lightDJState = LightDJState.LIGHTDJ_STATE_SHOWING_PROFILE;
+				
 			} else if (keyCode == KeyEvent.VK_LEFT) {
 				if (controlKeyPressed) {
 					startAutoCrossfade(-CROSSFADE_SPEED_SLOW);
@@ -1565,6 +1852,15 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 			}
 		
 			break;
+			
+		case LIGHTDJ_STATE_SHOWING_PROFILE:
+			if (keyCode == KeyEvent.VK_BACK_QUOTE || keyCode == KeyEvent.VK_ESCAPE || spaceKeyPressed) {
+				activeLayer = false;
+				spaceKeyPressed = false;
+				lightDJState = LightDJState.LIGHTDJ_STATE_NORMAL;
+			}
+			
+			break;
 		
 		}
 	}
@@ -1694,6 +1990,9 @@ public class VisualizationEngineParty extends VisualizationEngine implements Com
 		}
 		
 		crossfadeAutomator = CrossfadeAutomator.CROSSFADE_AUTO;
+		if (RENDER_OFFLINE) {
+			return;		// Stepped along with the audio instead
+		}
 		
 		(new Thread(new Runnable() {
 			public void run() {
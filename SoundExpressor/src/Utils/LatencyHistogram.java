@@ -0,0 +1,136 @@
+package Utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps track of how long something takes, every time it runs, so that the typical (p50),
+ * nearly-worst (p99) and worst times can be read off at any point.
+ *
+ * Times are counted into buckets that are spaced out logarithmically, 8 to each doubling, so
+ * any time from a nanosecond to hours can be recorded with about 12% precision, in a fixed
+ * amount of memory. Recording a time never locks or allocates anything, so it's cheap enough
+ * to do many times per frame, and any thread may record while any other reads.
+ *
+ * @author Steve Levine
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 3;					// 8 buckets per doubling
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+
+	/**
+	 * Record one time, in nanoseconds.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		buckets.incrementAndGet(getBucket(nanos));
+		total.addAndGet(nanos);
+		count.incrementAndGet();
+
+		long m;
+		while(nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {
+			// Someone else changed it first - try again
+		}
+	}
+
+	// Which bucket a time goes in: the first SUB_BUCKETS buckets hold 0 ... SUB_BUCKETS - 1 exactly,
+	// and each doubling after that is split into SUB_BUCKETS equal parts.
+	private static int getBucket(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) nanos;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int mantissa = (int) (nanos >>> (exponent - SUB_BUCKET_BITS));		// SUB_BUCKETS ... 2*SUB_BUCKETS - 1
+		return (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + mantissa;
+	}
+
+	// The largest time that goes in the given bucket
+	private static long getBucketTop(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS - 1 + SUB_BUCKET_BITS;
+		long mantissa = SUB_BUCKETS + bucket % SUB_BUCKETS;
+		return ((mantissa + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+	}
+
+
+	/**
+	 * The time (in nanoseconds) that the given fraction (i.e. 0.99) of the times recorded were
+	 * at or under, rounded up to the top of its bucket (but never past the worst time). Returns 0
+	 * if nothing has been recorded.
+	 */
+	public long getPercentile(double fraction) {
+		long n = count.get();
+		if (n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(fraction * n));
+		long seen = 0;
+		for(int i = 0; i < NUM_BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				return Math.min(getBucketTop(i), max.get());
+			}
+		}
+		return max.get();		// Some are still being recorded
+	}
+
+	/**
+	 * The median time, in nanoseconds.
+	 */
+	public long getP50() {
+		return getPercentile(0.50);
+	}
+
+	public long getP99() {
+		return getPercentile(0.99);
+	}
+
+	/**
+	 * The worst time so far, in nanoseconds.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * The average time, in nanoseconds.
+	 */
+	public double getMean() {
+		long n = count.get();
+		return (n == 0 ? 0 : (double) total.get() / n);
+	}
+
+	/**
+	 * How many times have been recorded.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Forget everything recorded so far. (Times recorded while this is going on may or may not
+	 * be kept.)
+	 */
+	public void reset() {
+		for(int i = 0; i < NUM_BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+}
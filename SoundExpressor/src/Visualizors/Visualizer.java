@@ -44,6 +44,22 @@ public abstract class Visualizer {
 		controls = new ArrayList<UserControl>();
 	}
 	
+	/**
+	 * Change the FFT size and the number of updates per second, when the VisualizationEngine
+	 * is reconfigured on the fly. Called between updates, never during visualize().
+	 */
+	public void setTiming(int fftSize, double updatesPerSecond) {
+		FFT_SIZE = fftSize;
+		UPDATES_PER_SECOND = updatesPerSecond;
+		timingChanged();
+	}
+	
+	/**
+	 * Called after FFT_SIZE or UPDATES_PER_SECOND have changed. Visualizers that work anything
+	 * out from them should do it here. Does nothing by default.
+	 */
+	protected void timingChanged() {}
+	
 	/**
 	 * FeatureDetectors may request user controls for user input using this function.
 	 * Please note that this function only works when called inside init().